@@ -0,0 +1,167 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How long a task waits before it retries after a rollback, and whether it may retry at
+ * all. The modes, for the n-th retry of a task:
+ *
+ * <pre>
+ * uniform       100 + random(nThreads * 1000) ms, the original scheme
+ * exponential   random(0, min(cap_ms, base_ms * 2^(n-1))), "full jitter"
+ * decorrelated  min(cap_ms, random(base_ms, 3 * previous)), previous starting at base_ms
+ * capped        min(cap_ms, base_ms * 2^(n-1)), no jitter
+ * </pre>
+ *
+ * The retry budget is shared by all tasks: over the last budget_window_ms, retries may be
+ * at most budget_ratio times the transactions that committed, plus min_retries_per_sec so
+ * the run can always make progress. A task whose retry is refused gives up. It stops a
+ * conflict storm from turning most of the work into retries. A budget_ratio of 0
+ * disables it.
+ */
+public class BackoffPolicy {
+    public static final String UNIFORM = "uniform";
+    public static final String EXPONENTIAL = "exponential";
+    public static final String DECORRELATED = "decorrelated";
+    public static final String CAPPED = "capped";
+
+    public static String mode = UNIFORM;
+    public static long base_ms = 10;
+    public static long cap_ms = 1000;
+
+    public static double budget_ratio = 0; // e.g. 0.2 for at most one retry per five commits
+    public static long budget_window_ms = 10000;
+    public static double min_retries_per_sec = 1;
+
+    private static final int BUCKETS = 10; // the window slides in steps of budget_window_ms / BUCKETS
+    private static final long[] bucket_start = new long[BUCKETS]; // guarded by the class
+    private static final long[] bucket_successes = new long[BUCKETS];
+    private static final long[] bucket_retries = new long[BUCKETS];
+
+    private static final AtomicLong backoffs = new AtomicLong(0);
+    private static final AtomicLong slept_ms = new AtomicLong(0);
+    private static final AtomicLong denied = new AtomicLong(0);
+
+    /**
+     * The back-off before retry number retries (1 for the first retry). previous_ms is
+     * what this task waited before its last retry, 0 before the first one.
+     */
+    public static long delayMillis(int retries, long previous_ms, SplittableRandom rand, int nThreads) {
+        long delay;
+        switch (mode) {
+            case EXPONENTIAL:
+                delay = rand.nextLong(exponential(retries) + 1);
+                break;
+            case DECORRELATED:
+                long upper = Math.max(base_ms, previous_ms) * 3;
+                delay = Math.min(cap_ms, base_ms + rand.nextLong(Math.max(1, upper - base_ms)));
+                break;
+            case CAPPED:
+                delay = exponential(retries);
+                break;
+            case UNIFORM:
+                delay = 100 + rand.nextInt(nThreads * 1000);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown back-off mode: " + mode);
+        }
+        backoffs.incrementAndGet();
+        slept_ms.addAndGet(delay);
+        return delay;
+    }
+
+    /**
+     * Sleeps for a back-off from delayMillis(). The time is reported to the concurrency
+     * limiter as a pause, so the back-off does not count as transaction latency.
+     */
+    public static void sleep(long delay_ms) throws InterruptedException {
+        long start = System.nanoTime();
+        try {
+            Thread.sleep(delay_ms);
+        } finally {
+            ConcurrencyLimiter.paused(System.nanoTime() - start);
+        }
+    }
+
+    // min(cap_ms, base_ms * 2^(retries-1)) without overflowing
+    private static long exponential(int retries) {
+        int shift = Math.max(0, Math.min(retries - 1, 62));
+        return base_ms > (cap_ms >> shift) ? cap_ms : Math.min(cap_ms, base_ms << shift);
+    }
+
+    /**
+     * Takes one retry from the budget; false if the budget is used up and the task
+     * should give up.
+     */
+    public static synchronized boolean tryRetry() {
+        if (budget_ratio <= 0) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        long successes = 0;
+        long retries = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (now - bucket_start[i] < budget_window_ms) {
+                successes += bucket_successes[i];
+                retries += bucket_retries[i];
+            }
+        }
+        double allowed = budget_ratio * successes + min_retries_per_sec * budget_window_ms / 1000.0;
+        if (retries + 1 > allowed) {
+            denied.incrementAndGet();
+            return false;
+        }
+        bucket_retries[bucket(now)]++;
+        return true;
+    }
+
+    /**
+     * Counts a committed transaction towards the retry budget.
+     */
+    public static synchronized void success() {
+        if (budget_ratio > 0) {
+            bucket_successes[bucket(System.currentTimeMillis())]++;
+        }
+    }
+
+    // The bucket for now, cleared if it last held an older time step
+    private static int bucket(long now) {
+        long width = Math.max(1, budget_window_ms / BUCKETS);
+        long step = now / width;
+        int i = (int) (step % BUCKETS);
+        if (bucket_start[i] != step * width) {
+            bucket_start[i] = step * width;
+            bucket_successes[i] = 0;
+            bucket_retries[i] = 0;
+        }
+        return i;
+    }
+
+    public static synchronized void resetCounters() {
+        for (int i = 0; i < BUCKETS; i++) {
+            bucket_start[i] = 0;
+            bucket_successes[i] = 0;
+            bucket_retries[i] = 0;
+        }
+        backoffs.set(0);
+        slept_ms.set(0);
+        denied.set(0);
+    }
+
+    public static long getSleptMillis() {
+        return slept_ms.get();
+    }
+
+    public static long getDenied() {
+        return denied.get();
+    }
+
+    public static String stats() {
+        long b = backoffs.get();
+        long s = slept_ms.get();
+        return "Back-off: " + mode + (mode.equals(UNIFORM) ? "" : " (base " + base_ms + " ms, cap " + cap_ms + " ms)")
+                + ", " + b + " back-offs, " + s + " ms slept" + (b > 0 ? " (mean " + s / b + " ms)" : "")
+                + ", retry budget: " + (budget_ratio > 0
+                        ? budget_ratio + " per commit + " + min_retries_per_sec + "/s over " + budget_window_ms + " ms, " + denied.get() + " retries denied"
+                        : "off");
+    }
+}
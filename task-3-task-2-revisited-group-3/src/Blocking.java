@@ -1,14 +1,8 @@
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Random;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.SplittableRandom;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.HashSet;
 
 /**
  *
@@ -36,15 +30,25 @@ import java.util.HashSet;
 public class Blocking {
     public static int num_taks=1000;
     public static int num_queries_per_task = 3;
+    public static String read_mode = BlockingQueries.PER_KEY; // BlockingQueries.PER_KEY (baseline) or BlockingQueries.BATCHED
+    public static String write_mode = BlockingQueries.PER_KEY; // BlockingQueries.PER_KEY (baseline), JDBC_BATCH, SINGLE_STATEMENT or ORDERED
+    public static String connection_mode = "per-task"; // "per-task" (baseline), "pooled" or "both" (compare in one run)
 
     Connection con;
-    Random rand = new Random(123456);
+    long seed = 123456;
+    Random rand = new Random(seed); // table data only, tasks use their own TaskRandom stream
     int num_tuple = 50000;
     double max_value = 50.0f;
     AtomicInteger tasks_finished;
+    WorkloadSpec spec;
 
     public Blocking(){
         tasks_finished = new AtomicInteger(0);
+
+        // Transaction mix and table size, from -Dworkload=<file> or the hardcoded defaults above
+        spec = WorkloadSpec.fromSystemProperty(WorkloadSpec.defaultMix(num_taks, num_queries_per_task, num_tuple, max_value));
+        num_tuple = spec.num_tuple;
+        max_value = spec.max_value;
     }
 
     void executeSQL(String sql, Connection con){
@@ -60,148 +64,181 @@ public class Blocking {
     }
 
     void createDB(){
-        try {
-            Connection con = ConnectionFactory.getDefaultParameterConnection(ConnectionFactory.POSTGRESQL);
-            executeSQL("DROP TABLE IF EXISTS blocking_data;",con);
-            executeSQL("CREATE TABLE blocking_data ( data_id integer primary key, data_value float, modified_by integer);",con);
-
-            PreparedStatement ps;
-            con.setAutoCommit(false);
-            ps = con.prepareStatement("INSERT INTO blocking_data VALUES (?, ?, ?)",ResultSet.TYPE_SCROLL_SENSITIVE, ResultSet.CONCUR_UPDATABLE);
-
-            for(int i=0;i<num_tuple;i++){
-                ps.setInt(1, i);
-                ps.setDouble(2,rand.nextDouble()*max_value);
-                ps.setInt(3, 0);
-                ps.addBatch();
-                ps.clearParameters();
-            }
-
-            int[] results = ps.executeBatch();
-            con.commit();
-            con.close();
-            System.out.println(Arrays.toString(results));
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        DataLoader.createDB(num_tuple, max_value, seed, rand);
     }
 
     public static void main(String[] args){
-        // Create DB
+        if (args.length > 0) {
+            connection_mode = args[0];
+        }
+
         Blocking b = new Blocking();
+        num_taks = b.spec.num_tasks;
+        LaneExecutor.key_space = b.num_tuple; // for range-partitioned lanes
+
+        if (TaskRunner.rate_sweep.length > 0) {
+            // Open-loop rate sweep: fresh table and tasks for every offered rate
+            ConnectionFactory.setPooled(connection_mode.equals("pooled"), ConnectionFactory.POSTGRESQL);
+            new TaskRunner(4, b.seed).sweep(() -> {
+                b.tasks_finished.set(0);
+                b.rand = new Random(b.seed);
+                b.createDB();
+                return b.createTasks();
+            }, () -> "finished " + b.tasks_finished);
+            ConnectionFactory.setPooled(false, ConnectionFactory.POSTGRESQL);
+            return;
+        }
+        if (TaskRunner.concurrency_sweep.length > 0) {
+            // Fixed pool vs virtual threads at each in-flight count
+            ConnectionFactory.setPooled(connection_mode.equals("pooled"), ConnectionFactory.POSTGRESQL);
+            new TaskRunner(4, b.seed).compareExecutors(() -> {
+                b.tasks_finished.set(0);
+                b.rand = new Random(b.seed);
+                b.createDB();
+                return b.createTasks();
+            }, () -> "finished " + b.tasks_finished);
+            ConnectionFactory.setPooled(false, ConnectionFactory.POSTGRESQL);
+            return;
+        }
+
+        // Create DB
         b.createDB();
 
-        // Create tasks and their queries
-        ArrayList<Blocking.Blocker> my_tasks = new ArrayList<Blocking.Blocker>(num_taks);
-        for(int task=0;task<num_taks;task++){
-            my_tasks.add(b.new Blocker(task));
+        // Tasks and their queries are generated while they run; both comparison runs get the same tasks
+        if (connection_mode.equals("both")) {
+            double per_task = b.runTasks(b.createTasks(), false);
+            // Start the second run from the same table, not from the one the first run wrote to
+            b.rand = new Random(b.seed);
+            b.createDB();
+            double pooled = b.runTasks(b.createTasks(), true);
+            System.out.println("[COMPARE] per-task connections: "+per_task+" ms, pooled connections: "+pooled+" ms");
+        } else {
+            b.runTasks(b.createTasks(), connection_mode.equals("pooled"));
         }
+    }
 
-        // Execute tasks
-        ThreadPoolExecutor executor =
-                (ThreadPoolExecutor) Executors.newFixedThreadPool(4); // Do not change the number of threads used
-        double start, stop;
-        start = System.currentTimeMillis();
-        for(Blocker task : my_tasks) {
-            executor.execute(task);
-        }
-        executor.shutdown();
+    TaskSource createTasks(){
+        return new TaskSource(num_taks, Blocker::new);
+    }
 
-        // Wait for the tasks to finish
-        while(!executor.isTerminated()) {
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+    /**
+     * Executes all tasks on the fixed thread pool and returns the elapsed time in ms.
+     */
+    double runTasks(TaskSource my_tasks, boolean pooled){
+        ConnectionFactory.setPooled(pooled, ConnectionFactory.POSTGRESQL);
+        tasks_finished.set(0);
+        StatementCache.resetCounters();
+        SharedScan.resetCounters();
+        SingleFlight.resetCounters();
+
+        // Execute tasks
+        RunStats stats = new TaskRunner(4, seed).run(my_tasks); // Do not change the number of threads used
+        System.out.println("[DONE] Task execution after roughly "+stats.getElapsedMillis()+" ms finished: "+tasks_finished+" of "+my_tasks.size()
+                +" ("+(pooled ? "pooled" : "per-task")+" connections)");
+        System.out.println("Latency: "+stats);
+        System.out.println("Workload: "+spec);
+        System.out.println("Read mode: "+read_mode);
+        System.out.println("Write mode: "+write_mode);
+        System.out.println(StatementCache.stats());
+        System.out.println(SharedScan.stats());
+        System.out.println(SingleFlight.stats());
+        if (pooled) {
+            System.out.println(ConnectionFactory.getPool());
+            ConnectionFactory.setPooled(false, ConnectionFactory.POSTGRESQL);
         }
-        stop = System.currentTimeMillis();
-        System.out.println("[DONE] Task execution after roughly "+(stop-start)+" ms finished: "+b.tasks_finished+" of "+num_taks);
+        return stats.getElapsedMillis();
     }
 
     /**
      * This task simulates different types of transactions based on a probability distribution.
      */
-    public class Blocker implements Runnable  {
+    public class Blocker implements KeyedTask  {
         final int task;
         final double p;
-        final int[] data_ids;
+        final WorkloadSpec.TxType type;
+        final int[] data_ids; // null unless the type addresses rows by data_id
+        final double[] start_range; // only for range updates
+        final double[] stop_range;
+        final SplittableRandom task_rand; // this task's own stream, see TaskRandom
 
-        public Blocker(int id){
+        public Blocker(int id) {
             this.task = id;
-            this.p = rand.nextDouble(); // Generate p in [0,1]
-
-            if (p < 0.7 || p >= 0.8) {
-                data_ids = new int[num_queries_per_task];
-                HashSet<Integer> used_ids = new HashSet<>();
-                for (int q = 0; q < num_queries_per_task; q++) {
-                    int data_id;
-                    do {
-                        data_id = rand.nextInt(num_tuple);
-                    } while (used_ids.contains(data_id));
-                    used_ids.add(data_id);
-                    data_ids[q] = data_id;
-                }
+            this.task_rand = TaskRandom.forTask(seed, id);
+            this.p = task_rand.nextDouble(); // Generate p in [0,1]
+            this.type = spec.pick(p);
+
+            data_ids = type.usesKeys() ? spec.drawKeys(task_rand, type) : null;
+            if (type.kind.equals(WorkloadSpec.RANGE_UPDATE)) {
+                start_range = new double[type.queries_per_task];
+                stop_range = new double[type.queries_per_task];
+                spec.drawRanges(task_rand, start_range, stop_range);
             } else {
-                data_ids = null; // Not needed for full table scan
+                start_range = null;
+                stop_range = null;
             }
         }
 
+        @Override
+        public int[] keys() {
+            return data_ids;
+        }
+
+        @Override
+        public boolean writes() {
+            return type.writes();
+        }
+
+        @Override
+        public String kind() {
+            return type.kind;
+        }
+
         @Override
         public void run() {
-            Connection con = null; // Each task needs its own connection
-            con = ConnectionFactory.getDefaultParameterConnection(ConnectionFactory.POSTGRESQL);
-            PreparedStatement ps;
+            Connection con = null; // Each task needs its own connection (borrowed from the pool in pooled mode)
+            con = ConnectionFactory.getConnection(ConnectionFactory.POSTGRESQL);
 
             try {
                 con.setAutoCommit(false);
                 con.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
 
-                if (p < 0.7) {
+                if (type.kind.equals(WorkloadSpec.POINT_READ)) {
                     // Read-only multi-point query
-                    double sum = 0;
-                    ps = con.prepareStatement("SELECT data_value FROM blocking_data WHERE data_id = ?");
-                    for (int q = 0; q < num_queries_per_task; q++) {
-                        ps.setInt(1, data_ids[q]);
-                        ResultSet rs = ps.executeQuery();
-                        if (rs.next()) {
-                            sum += rs.getDouble(1);
-                        }
-                        rs.close();
-                    }
+                    double sum = SingleFlight.readPoints(con, data_ids, read_mode);
                     con.commit();
                     int num_finished = tasks_finished.incrementAndGet();
-                    con.close();
                     System.out.println("Task " + task + " (Read multi-point query). Sum: " + sum + ". I am finisher number " + num_finished);
-                } else if (p >= 0.7 && p < 0.8) {
+                } else if (type.kind.equals(WorkloadSpec.SCAN)) {
                     // Full table read-only scan
-                    ps = con.prepareStatement("SELECT SUM(data_value) FROM blocking_data");
-                    ResultSet rs = ps.executeQuery();
-                    double sum = 0;
-                    if (rs.next()) {
-                        sum = rs.getDouble(1);
-                    }
-                    rs.close();
+                    double sum = SharedScan.scanSum(con);
                     con.commit();
                     int num_finished = tasks_finished.incrementAndGet();
-                    con.close();
                     System.out.println("Task " + task + " (Full table scan). Sum: " + sum + ". I am finisher number " + num_finished);
+                } else if (type.kind.equals(WorkloadSpec.RANGE_UPDATE)) {
+                    // Range updates on data_value
+                    double[] values = new double[start_range.length];
+                    for (int q = 0; q < values.length; q++) {
+                        values[q] = task_rand.nextDouble() * max_value;
+                    }
+                    BlockingQueries.updateRanges(con, start_range, stop_range, values, task, write_mode);
+                    con.commit();
+                    int num_finished = tasks_finished.incrementAndGet();
+                    System.out.println("Done task "+task+" (Range update). I am finisher number "+num_finished);
                 } else {
-                    // p >= 0.8, write query
-                    ps = con.prepareStatement("UPDATE blocking_data SET data_value = ?, modified_by = ? WHERE data_id = ?");
-                    for (int q = 0; q < num_queries_per_task; q++) {
-                        ps.setDouble(1, rand.nextDouble() * max_value);
-                        ps.setInt(2, task);
-                        ps.setInt(3, data_ids[q]);
-                        ps.executeUpdate();
+                    // Write query
+                    double[] values = new double[data_ids.length];
+                    for (int q = 0; q < values.length; q++) {
+                        values[q] = task_rand.nextDouble() * max_value;
                     }
+                    BlockingQueries.writePoints(con, data_ids, values, task, write_mode);
                     con.commit();
                     int num_finished = tasks_finished.incrementAndGet();
-                    con.close();
                     System.out.println("Done task "+task+" (Write). I am finisher number "+num_finished);
                 }
             } catch (SQLException e) {
                 System.err.println("Task "+task+" "+e.getMessage());
+            } finally {
+                ConnectionFactory.releaseConnection(con);
             }
         }
     }
@@ -0,0 +1,279 @@
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The queries the Blocker tasks run against blocking_data, shared by all drivers.
+ * Statements come from the per-connection statement cache and must not be closed here.
+ */
+public class BlockingQueries {
+    // Read modes for the multi-point read transaction
+    public static final String PER_KEY = "per-key"; // one round trip per data_id
+    public static final String BATCHED = "batched"; // all data_ids in one array-bound query
+
+    // Write modes for the write transaction (PER_KEY runs one executeUpdate per data_id)
+    public static final String JDBC_BATCH = "jdbc-batch"; // all updates sent as one JDBC batch
+    public static final String SINGLE_STATEMENT = "single-statement"; // one UPDATE ... FROM unnest(...) for all rows
+    public static final String ORDERED = "ordered"; // lock all rows in data_id order first, then SINGLE_STATEMENT
+
+    static final String SELECT_POINT = "SELECT data_value FROM blocking_data WHERE data_id = ?";
+    static final String SELECT_POINTS = "SELECT SUM(data_value) FROM blocking_data WHERE data_id = ANY(?)";
+    static final String SELECT_VALUES = "SELECT data_id, data_value FROM blocking_data WHERE data_id = ANY(?)";
+    static final String UPDATE_POINT = "UPDATE blocking_data SET data_value = ?, modified_by = ? WHERE data_id = ?";
+    static final String SELECT_SUM = "SELECT SUM(data_value) FROM blocking_data";
+    static final String UPDATE_RANGE = "UPDATE blocking_data SET data_value = ?, modified_by = ? WHERE data_value >= ? AND data_value <= ?";
+    static final String UPDATE_POINTS = "UPDATE blocking_data SET data_value = v.data_value, modified_by = ? "
+            + "FROM unnest(?::integer[], ?::float8[]) AS v(data_id, data_value) "
+            + "WHERE blocking_data.data_id = v.data_id";
+    // Rows are locked in the order they are returned, so ORDER BY gives every transaction the same lock order
+    static final String LOCK_POINTS = "SELECT data_id FROM blocking_data WHERE data_id = ANY(?) ORDER BY data_id FOR UPDATE";
+    static final String LOCK_RANGES = "SELECT data_id FROM blocking_data WHERE EXISTS "
+            + "(SELECT 1 FROM unnest(?::float8[], ?::float8[]) AS r(lo, hi) WHERE data_value >= r.lo AND data_value <= r.hi) "
+            + "ORDER BY data_id FOR UPDATE";
+
+    /**
+     * Reads data_value of every data_id and returns the sum. Does not commit.
+     */
+    public static double readPoints(Connection con, int[] data_ids, String read_mode) throws SQLException {
+        if (BATCHED.equals(read_mode)) {
+            return readPointsBatched(con, data_ids);
+        }
+        if (!PER_KEY.equals(read_mode)) {
+            throw new IllegalArgumentException("Unknown read mode: " + read_mode);
+        }
+        double sum = 0;
+        PreparedStatement ps = ConnectionFactory.prepareCached(con, SELECT_POINT);
+        for (int data_id : data_ids) {
+            ps.setInt(1, data_id);
+            ResultSet rs = ps.executeQuery();
+            if (rs.next()) {
+                sum += rs.getDouble(1);
+            }
+            rs.close();
+        }
+        return sum;
+    }
+
+    // Single round trip no matter how many keys the task reads
+    static double readPointsBatched(Connection con, int[] data_ids) throws SQLException {
+        Array id_array = intArray(con, data_ids);
+        try {
+            PreparedStatement ps = ConnectionFactory.prepareCached(con, SELECT_POINTS);
+            ps.setArray(1, id_array);
+            double sum = 0;
+            ResultSet rs = ps.executeQuery();
+            if (rs.next()) {
+                sum = rs.getDouble(1); // SUM over no rows is NULL, getDouble maps it to 0
+            }
+            rs.close();
+            return sum;
+        } finally {
+            id_array.free();
+        }
+    }
+
+    /**
+     * Reads data_value of every data_id into values, 0 for ids without a row, with one
+     * query in BATCHED mode or one per key in PER_KEY mode. Does not commit.
+     */
+    static void readValues(Connection con, int[] data_ids, double[] values, String read_mode) throws SQLException {
+        if (PER_KEY.equals(read_mode)) {
+            PreparedStatement ps = ConnectionFactory.prepareCached(con, SELECT_POINT);
+            for (int i = 0; i < data_ids.length; i++) {
+                ps.setInt(1, data_ids[i]);
+                ResultSet rs = ps.executeQuery();
+                values[i] = rs.next() ? rs.getDouble(1) : 0;
+                rs.close();
+            }
+            return;
+        }
+        if (!BATCHED.equals(read_mode)) {
+            throw new IllegalArgumentException("Unknown read mode: " + read_mode);
+        }
+        Array id_array = intArray(con, data_ids);
+        try {
+            PreparedStatement ps = ConnectionFactory.prepareCached(con, SELECT_VALUES);
+            ps.setArray(1, id_array);
+            HashMap<Integer, Integer> position = new HashMap<>(data_ids.length * 2);
+            for (int i = 0; i < data_ids.length; i++) {
+                position.put(data_ids[i], i);
+            }
+            Arrays.fill(values, 0);
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                Integer i = position.get(rs.getInt(1));
+                if (i != null) {
+                    values[i] = rs.getDouble(2);
+                }
+            }
+            rs.close();
+        } finally {
+            id_array.free();
+        }
+    }
+
+    /**
+     * Sets data_value of data_ids[i] to values[i] and modified_by to task. Does not commit.
+     */
+    public static void writePoints(Connection con, int[] data_ids, double[] values, int task, String write_mode) throws SQLException {
+        if (SINGLE_STATEMENT.equals(write_mode)) {
+            writePointsSingleStatement(con, data_ids, values, task);
+            return;
+        }
+        if (ORDERED.equals(write_mode)) {
+            lockPointsOrdered(con, data_ids);
+            writePointsSingleStatement(con, data_ids, values, task);
+            return;
+        }
+        PreparedStatement ps = ConnectionFactory.prepareCached(con, UPDATE_POINT);
+        if (JDBC_BATCH.equals(write_mode)) {
+            for (int q = 0; q < data_ids.length; q++) {
+                ps.setDouble(1, values[q]);
+                ps.setInt(2, task);
+                ps.setInt(3, data_ids[q]);
+                ps.addBatch();
+            }
+            try {
+                ps.executeBatch();
+            } finally {
+                ps.clearBatch(); // the statement is cached, do not leave a half-sent batch behind after a deadlock
+            }
+        } else if (PER_KEY.equals(write_mode)) {
+            for (int q = 0; q < data_ids.length; q++) {
+                ps.setDouble(1, values[q]);
+                ps.setInt(2, task);
+                ps.setInt(3, data_ids[q]);
+                ps.executeUpdate();
+            }
+        } else {
+            throw new IllegalArgumentException("Unknown write mode: " + write_mode);
+        }
+    }
+
+    // All rows of the task are updated by one statement, so the locks are taken within a single round trip
+    static void writePointsSingleStatement(Connection con, int[] data_ids, double[] values, int task) throws SQLException {
+        Array id_array = intArray(con, data_ids);
+        Array value_array = doubleArray(con, values);
+        try {
+            PreparedStatement ps = ConnectionFactory.prepareCached(con, UPDATE_POINTS);
+            ps.setInt(1, task);
+            ps.setArray(2, id_array);
+            ps.setArray(3, value_array);
+            ps.executeUpdate();
+        } finally {
+            id_array.free();
+            value_array.free();
+        }
+    }
+
+    /**
+     * Locks the rows of data_ids in ascending data_id order. Two transactions that lock
+     * their rows this way wait for each other at most once and never deadlock, whatever
+     * order their keys were generated in.
+     */
+    static void lockPointsOrdered(Connection con, int[] data_ids) throws SQLException {
+        Array id_array = intArray(con, data_ids);
+        try {
+            PreparedStatement ps = ConnectionFactory.prepareCached(con, LOCK_POINTS);
+            ps.setArray(1, id_array);
+            drain(ps.executeQuery());
+        } finally {
+            id_array.free();
+        }
+    }
+
+    /**
+     * Locks every row matching any of the ranges in ascending data_id order, with one
+     * statement, so the rows of all ranges are locked in one global order. Only the rows
+     * that match when this runs are locked: the range itself is not. Under READ COMMITTED
+     * a row that a concurrent write moves into a range afterwards is locked by the UPDATE,
+     * out of order, so deadlocks become rarer but remain possible.
+     */
+    static void lockRangesOrdered(Connection con, double[] start_range, double[] stop_range) throws SQLException {
+        Array lo_array = doubleArray(con, start_range);
+        Array hi_array = doubleArray(con, stop_range);
+        try {
+            PreparedStatement ps = ConnectionFactory.prepareCached(con, LOCK_RANGES);
+            ps.setArray(1, lo_array);
+            ps.setArray(2, hi_array);
+            drain(ps.executeQuery());
+        } finally {
+            lo_array.free();
+            hi_array.free();
+        }
+    }
+
+    // int4[] parameter for the array-bound queries, free() it after use
+    static Array intArray(Connection con, int[] values) throws SQLException {
+        Integer[] boxed = new Integer[values.length];
+        for (int i = 0; i < values.length; i++) {
+            boxed[i] = values[i];
+        }
+        return con.createArrayOf("int4", boxed);
+    }
+
+    // float8[] parameter for the array-bound queries, free() it after use
+    static Array doubleArray(Connection con, double[] values) throws SQLException {
+        Double[] boxed = new Double[values.length];
+        for (int i = 0; i < values.length; i++) {
+            boxed[i] = values[i];
+        }
+        return con.createArrayOf("float8", boxed);
+    }
+
+    // Locks are taken while the rows are fetched, so read the result to the end
+    private static void drain(ResultSet rs) throws SQLException {
+        while (rs.next()) {
+            // nothing to do with the rows themselves
+        }
+        rs.close();
+    }
+
+    /**
+     * Full table scan, returns the sum of all data_value. Does not commit.
+     */
+    public static double scanSum(Connection con) throws SQLException {
+        PreparedStatement ps = ConnectionFactory.prepareCached(con, SELECT_SUM);
+        ResultSet rs = ps.executeQuery();
+        double sum = 0;
+        if (rs.next()) {
+            sum = rs.getDouble(1);
+        }
+        rs.close();
+        return sum;
+    }
+
+    /**
+     * Sets data_value to values[q] and modified_by to task for all rows with data_value in
+     * [start_range[q], stop_range[q]], one statement per range. Does not commit. Returns
+     * the number of rows updated, which is also the number of row locks taken.
+     */
+    public static long updateRanges(Connection con, double[] start_range, double[] stop_range, double[] values, int task) throws SQLException {
+        PreparedStatement ps = ConnectionFactory.prepareCached(con, UPDATE_RANGE);
+        long rows = 0;
+        for (int q = 0; q < start_range.length; q++) {
+            ps.setDouble(1, values[q]);
+            ps.setInt(2, task);
+            ps.setDouble(3, start_range[q]);
+            ps.setDouble(4, stop_range[q]);
+            rows += ps.executeUpdate();
+        }
+        return rows;
+    }
+
+    /**
+     * updateRanges, but with write_mode ORDERED the matching rows are locked in data_id
+     * order before the first update. Not deadlock-free for range updates, see
+     * lockRangesOrdered; the retry loop still has to handle 40P01.
+     */
+    public static long updateRanges(Connection con, double[] start_range, double[] stop_range, double[] values, int task, String write_mode) throws SQLException {
+        if (ORDERED.equals(write_mode)) {
+            lockRangesOrdered(con, start_range, stop_range);
+        }
+        return updateRanges(con, start_range, stop_range, values, task);
+    }
+}
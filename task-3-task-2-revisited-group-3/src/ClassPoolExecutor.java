@@ -0,0 +1,154 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One worker pool per transaction class, each with its own threads and queue: point
+ * reads, full scans, and writes (point writes and range updates). A burst of scans then
+ * only queues behind other scans and cannot occupy the threads the sub-millisecond point
+ * reads need. Every pool records how long its tasks waited in its queue.
+ *
+ * In closed mode every class also has its own admission window of queue_per_thread
+ * tasks per thread (see admit()), so queued scans use up only scan permits and never the
+ * room of the point reads. The submitting thread is shared, so while it waits for a
+ * permit of a full class, the tasks behind that one in the stream wait as well.
+ */
+public class ClassPoolExecutor extends AbstractExecutorService {
+    public static int point_read_threads = 2;
+    public static int scan_threads = 1;
+    public static int write_threads = 1;
+
+    static final String[] CLASSES = {WorkloadSpec.POINT_READ, WorkloadSpec.SCAN, WorkloadSpec.WRITE};
+
+    private final ExecutorService[] pools = new ExecutorService[CLASSES.length];
+    private final int[] threads = new int[CLASSES.length];
+    private final RunStats[] queue_delay = new RunStats[CLASSES.length];
+    private final Semaphore[] admission = new Semaphore[CLASSES.length];
+
+    public ClassPoolExecutor(int queue_per_thread) {
+        threads[0] = point_read_threads;
+        threads[1] = scan_threads;
+        threads[2] = write_threads;
+        for (int i = 0; i < CLASSES.length; i++) {
+            if (threads[i] < 1) {
+                throw new IllegalArgumentException("Every transaction class needs at least one thread: " + CLASSES[i]);
+            }
+            pools[i] = Executors.newFixedThreadPool(threads[i]);
+            queue_delay[i] = new RunStats();
+            admission[i] = new Semaphore(threads[i] * Math.max(1, queue_per_thread));
+        }
+    }
+
+    public static int totalThreads() {
+        return point_read_threads + scan_threads + write_threads;
+    }
+
+    // Tasks that are not KeyedTasks, and range updates, count as writes
+    static int classOf(Runnable task) {
+        String kind = task instanceof KeyedTask ? ((KeyedTask) task).kind() : null;
+        if (WorkloadSpec.POINT_READ.equals(kind)) {
+            return 0;
+        }
+        if (WorkloadSpec.SCAN.equals(kind)) {
+            return 1;
+        }
+        return 2;
+    }
+
+    /**
+     * Closed-loop admission: waits for a permit of task's class. Hand it back with
+     * release(task) once the task is done.
+     */
+    public void admit(Runnable task) {
+        admission[classOf(task)].acquireUninterruptibly();
+    }
+
+    public void release(Runnable task) {
+        admission[classOf(task)].release();
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        execute(task, task);
+    }
+
+    /**
+     * Queues body in the pool of task's class, task being body itself or the task body wraps.
+     */
+    public void execute(Runnable task, Runnable body) {
+        int c = classOf(task);
+        RunStats delay = queue_delay[c];
+        long queued = System.nanoTime();
+        pools[c].execute(() -> {
+            delay.record(System.nanoTime() - queued);
+            body.run();
+        });
+    }
+
+    @Override
+    public void shutdown() {
+        for (ExecutorService pool : pools) {
+            pool.shutdown();
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> pending = new ArrayList<>();
+        for (ExecutorService pool : pools) {
+            pending.addAll(pool.shutdownNow());
+        }
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        for (ExecutorService pool : pools) {
+            if (!pool.isShutdown()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        for (ExecutorService pool : pools) {
+            if (!pool.isTerminated()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ExecutorService pool : pools) {
+            if (!pool.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Class pools, queueing delay per class:");
+        for (int i = 0; i < CLASSES.length; i++) {
+            RunStats d = queue_delay[i];
+            sb.append("\n  ").append(CLASSES[i]).append(": ").append(threads[i]).append(" threads, ").append(d.getCount()).append(" tasks");
+            if (d.getCount() > 0) {
+                sb.append(", queued ms: mean ").append(String.format("%.2f", d.meanMillis()))
+                        .append(", p50 ").append(String.format("%.2f", d.percentileMillis(0.50)))
+                        .append(", p99 ").append(String.format("%.2f", d.percentileMillis(0.99)))
+                        .append(", max ").append(String.format("%.2f", d.maxMillis()));
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,200 @@
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Adaptive limit on in-flight transactions (AIMD). Every window_ms the limiter looks at
+ * the transactions that finished in the window:
+ *
+ * <pre>
+ * conflicts / finished > conflict_threshold          limit *= backoff_ratio
+ * mean latency > latency_tolerance * best latency    limit *= latency_backoff_ratio
+ * otherwise, if the limit was reached in the window  limit += 1
+ * </pre>
+ *
+ * The best latency is the lowest window mean seen so far, so latency growing beyond it
+ * means transactions queue inside the database (on row locks). Time a task reports
+ * through paused(), such as the retry back-off, is left out of its latency, because
+ * sleeping is not load on the database. Conflicts are the
+ * deadlocks and serialization failures the drivers report through conflict(). The limit
+ * stays in [min_limit, max_limit] and every change is logged, so its convergence can be
+ * followed in the output.
+ */
+public class ConcurrencyLimiter {
+    public static int min_limit = 1;
+    public static int max_limit = 64;
+    public static long window_ms = 250;
+    public static double conflict_threshold = 0.02; // share of finished transactions that had to retry
+    public static double backoff_ratio = 0.5;
+    public static double latency_tolerance = 2.0;
+    public static double latency_backoff_ratio = 0.9;
+    public static boolean log_every_window = false; // also log windows that leave the limit unchanged
+
+    private static volatile ConcurrencyLimiter active;
+    private static final ThreadLocal<long[]> paused_nanos = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition below_limit = lock.newCondition();
+    private final long start_nanos = System.nanoTime();
+    private double limit;
+    private int in_flight = 0;
+
+    // Current window, guarded by lock
+    private long window_start;
+    private int finished = 0;
+    private int conflicts = 0;
+    private long latency_sum_nanos = 0;
+    private boolean saturated = false;
+    private double best_latency_nanos = Double.MAX_VALUE;
+
+    // Limit history for the summary
+    private double limit_sum = 0;
+    private int windows = 0;
+    private int changes = 0;
+
+    public ConcurrencyLimiter(int initial_limit) {
+        this.limit = Math.max(min_limit, Math.min(max_limit, initial_limit));
+        this.window_start = start_nanos;
+        System.out.println("[LIMIT] " + elapsed() + " limit " + getLimit() + " (initial)");
+    }
+
+    /**
+     * Makes this the limiter conflict() reports to, null for none.
+     */
+    public static void setActive(ConcurrencyLimiter limiter) {
+        active = limiter;
+    }
+
+    /**
+     * Called by a driver whenever a transaction has to be rolled back and retried because of
+     * a deadlock or serialization failure.
+     */
+    public static void conflict() {
+        ConcurrencyLimiter limiter = active;
+        if (limiter != null) {
+            limiter.recordConflict();
+        }
+    }
+
+    /**
+     * Called by a driver for time the current task spends not running statements, e.g.
+     * sleeping in its retry back-off.
+     */
+    public static void paused(long nanos) {
+        if (active != null) {
+            paused_nanos.get()[0] += nanos;
+        }
+    }
+
+    /**
+     * Returns and clears the time paused() reported on this thread.
+     */
+    static long takePaused() {
+        long[] paused = paused_nanos.get();
+        long nanos = paused[0];
+        paused[0] = 0;
+        return nanos;
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Blocks until fewer than limit transactions are in flight.
+     */
+    public void acquire() {
+        lock.lock();
+        try {
+            while (in_flight >= (int) limit) {
+                below_limit.awaitUninterruptibly();
+            }
+            in_flight++;
+            if (in_flight >= (int) limit) {
+                saturated = true;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends a transaction that was started after acquire() and took latency_nanos.
+     */
+    public void release(long latency_nanos) {
+        lock.lock();
+        try {
+            in_flight--;
+            finished++;
+            latency_sum_nanos += latency_nanos;
+            long now = System.nanoTime();
+            if (now - window_start >= window_ms * 1_000_000L) {
+                adjust(now);
+            }
+            below_limit.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recordConflict() {
+        lock.lock();
+        try {
+            conflicts++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Called with lock held at the end of a window
+    private void adjust(long now) {
+        double old_limit = limit;
+        double mean_latency = (double) latency_sum_nanos / finished;
+        double conflict_rate = (double) conflicts / finished;
+        String reason;
+        if (conflict_rate > conflict_threshold) {
+            limit = limit * backoff_ratio;
+            reason = "conflicts";
+        } else if (mean_latency > latency_tolerance * best_latency_nanos) {
+            limit = limit * latency_backoff_ratio;
+            reason = "latency";
+        } else if (saturated) {
+            limit = limit + 1;
+            reason = "increase";
+        } else {
+            reason = "idle";
+        }
+        limit = Math.max(min_limit, Math.min(max_limit, limit));
+        best_latency_nanos = Math.min(best_latency_nanos, mean_latency);
+
+        if ((int) limit != (int) old_limit) {
+            changes++;
+        }
+        if ((int) limit != (int) old_limit || log_every_window) {
+            System.out.println("[LIMIT] " + elapsed() + " limit " + (int) old_limit + " -> " + (int) limit + " (" + reason
+                    + "), conflicts " + conflicts + "/" + finished + ", mean latency " + String.format("%.1f", mean_latency / 1e6) + " ms");
+        }
+        limit_sum += limit;
+        windows++;
+
+        window_start = now;
+        finished = 0;
+        conflicts = 0;
+        latency_sum_nanos = 0;
+        saturated = in_flight >= (int) limit;
+    }
+
+    private String elapsed() {
+        return String.format("%.2fs", (System.nanoTime() - start_nanos) / 1e9);
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "Concurrency limit: final " + getLimit() + ", mean " + String.format("%.1f", windows == 0 ? limit : limit_sum / windows)
+                    + " over " + windows + " windows of " + window_ms + " ms, " + changes + " changes, range [" + min_limit + ", " + max_limit + "]";
+        } finally {
+            lock.unlock();
+        }
+    }
+}
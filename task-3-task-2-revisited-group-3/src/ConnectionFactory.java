@@ -1,10 +1,23 @@
     import java.sql.Connection;
     import java.sql.DriverManager;
+    import java.sql.PreparedStatement;
     import java.sql.SQLException;
+    import java.util.Map;
+    import java.util.concurrent.ConcurrentHashMap;
 
     public class ConnectionFactory {
         public static final String POSTGRESQL = "postgresql";
 
+        // Pool settings, used once pooled mode is switched on
+        public static int pool_min_size = 4;
+        public static int pool_max_size = 8;
+        public static long pool_idle_timeout_ms = 30000;
+
+        private static volatile ConnectionPool pool;
+
+        // One statement cache per open connection, dropped when the connection is really closed
+        private static final Map<Connection, StatementCache> statement_caches = new ConcurrentHashMap<>();
+
         public static Connection getDefaultParameterConnection(String dbType) {
             if (POSTGRESQL.equals(dbType)) {
                 String url = "jdbc:postgresql://localhost:5432/postgres"; // Replace with your database URL
@@ -20,4 +33,97 @@
                 throw new UnsupportedOperationException("Database type not supported");
             }
         }
-    }
\ No newline at end of file
+
+        /**
+         * Returns a connection for one task: borrowed from the pool in pooled mode,
+         * otherwise a fresh connection. Hand it back with releaseConnection().
+         */
+        public static Connection getConnection(String dbType) {
+            ConnectionPool p = pool;
+            if (p != null) {
+                return p.borrow();
+            }
+            return getDefaultParameterConnection(dbType);
+        }
+
+        /**
+         * Returns the connection to the pool in pooled mode, otherwise closes it.
+         */
+        public static void releaseConnection(Connection con) {
+            ConnectionPool p = pool;
+            if (p != null) {
+                p.release(con);
+            } else {
+                closeQuietly(con);
+            }
+        }
+
+        /**
+         * Replaces a connection that is no longer usable with a fresh one with the same
+         * settings, for the transaction's retry. The fresh connection is opened and set up
+         * first; if that fails it is closed and the caller keeps con. Otherwise con is closed
+         * and the fresh connection takes its place, in pooled mode also its pool slot, so a
+         * reconnect never waits for other borrowers. Release only the returned connection.
+         */
+        public static Connection reconnect(Connection con, String dbType) throws SQLException {
+            Connection fresh = getDefaultParameterConnection(dbType);
+            try {
+                fresh.setAutoCommit(false);
+                fresh.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            } catch (SQLException | RuntimeException e) {
+                closeQuietly(fresh);
+                throw e;
+            }
+            closeQuietly(con);
+            return fresh;
+        }
+
+        /**
+         * Switches between pooled and per-task connections. Can be called between two
+         * measurement rounds of the same run; switching off closes the current pool.
+         */
+        public static synchronized void setPooled(boolean pooled, String dbType) {
+            if (pooled && pool == null) {
+                pool = new ConnectionPool(dbType, pool_min_size, pool_max_size, pool_idle_timeout_ms);
+            } else if (!pooled && pool != null) {
+                ConnectionPool old = pool;
+                pool = null;
+                System.out.println("Closing " + old);
+                old.close();
+            }
+        }
+
+        public static boolean isPooled() {
+            return pool != null;
+        }
+
+        public static ConnectionPool getPool() {
+            return pool;
+        }
+
+        /**
+         * Returns the prepared statement for sql from the cache attached to con. The statement
+         * lives as long as the connection, so pooled sessions prepare each query only once
+         * for all tasks and retries. Do not close the returned statement.
+         */
+        public static PreparedStatement prepareCached(Connection con, String sql) throws SQLException {
+            return statement_caches.computeIfAbsent(con, StatementCache::new).prepare(sql);
+        }
+
+        static void closeQuietly(Connection con) {
+            if (con == null) {
+                return;
+            }
+            StatementCache cache = statement_caches.remove(con);
+            if (cache != null) {
+                cache.close();
+            }
+            try {
+                if (!con.isClosed()) {
+                    con.close();
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
@@ -0,0 +1,222 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded pool of warm connections. Tasks borrow a connection, run their transaction
+ * and return it, so the TCP + auth + backend fork of a new session is only paid
+ * once per pooled connection instead of once per task.
+ */
+public class ConnectionPool {
+    final String dbType;
+    final int min_size;
+    final int max_size;
+    final long idle_timeout_ms;
+
+    private final ArrayDeque<IdleConnection> idle = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private int open_connections = 0; // idle + borrowed
+    private boolean closed = false;
+
+    int connections_created = 0;
+    int connections_evicted = 0;
+    long borrows = 0;
+
+    private static class IdleConnection {
+        final Connection con;
+        final long idle_since;
+
+        IdleConnection(Connection con, long idle_since) {
+            this.con = con;
+            this.idle_since = idle_since;
+        }
+    }
+
+    public ConnectionPool(String dbType, int min_size, int max_size, long idle_timeout_ms) {
+        if (min_size < 0 || max_size < 1 || min_size > max_size) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + min_size + ", max=" + max_size);
+        }
+        this.dbType = dbType;
+        this.min_size = min_size;
+        this.max_size = max_size;
+        this.idle_timeout_ms = idle_timeout_ms;
+
+        // Pre-open the minimum number of sessions so the first tasks do not pay the handshake
+        for (int i = 0; i < min_size; i++) {
+            idle.push(new IdleConnection(openConnection(), System.currentTimeMillis()));
+            open_connections++;
+        }
+    }
+
+    /**
+     * Returns an idle connection, opens a new one if the pool is below max_size,
+     * or waits until another task returns its connection.
+     */
+    public Connection borrow() {
+        lock.lock();
+        try {
+            while (true) {
+                if (closed) {
+                    throw new IllegalStateException("Connection pool is closed");
+                }
+                evictIdle();
+                IdleConnection entry = idle.poll(); // most recently used first, keeps the working set warm
+                if (entry != null) {
+                    if (isValid(entry.con)) {
+                        borrows++;
+                        return entry.con;
+                    }
+                    discard(entry.con);
+                    continue;
+                }
+                if (open_connections < max_size) {
+                    open_connections++;
+                    borrows++;
+                    break;
+                }
+                released.awaitUninterruptibly();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        // Open outside the lock, the handshake must not block other borrowers
+        try {
+            return openConnection();
+        } catch (RuntimeException e) {
+            lock.lock();
+            try {
+                open_connections--;
+                released.signal();
+            } finally {
+                lock.unlock();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Hands a borrowed connection back. Open transactions are rolled back so the next
+     * borrower always starts from a clean session.
+     */
+    public void release(Connection con) {
+        if (con == null) {
+            return;
+        }
+        boolean reusable;
+        try {
+            reusable = !con.isClosed();
+            if (reusable && !con.getAutoCommit()) {
+                con.rollback();
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+
+        lock.lock();
+        try {
+            if (reusable && !closed) {
+                idle.push(new IdleConnection(con, System.currentTimeMillis()));
+            } else {
+                discard(con);
+            }
+            released.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Closes all idle connections. Connections still borrowed are closed when they are released.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            while (!idle.isEmpty()) {
+                discard(idle.poll().con);
+            }
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getOpenConnections() {
+        lock.lock();
+        try {
+            return open_connections;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getIdleConnections() {
+        lock.lock();
+        try {
+            return idle.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "ConnectionPool[min=" + min_size + ", max=" + max_size + ", open=" + open_connections
+                    + ", idle=" + idle.size() + ", created=" + connections_created
+                    + ", evicted=" + connections_evicted + ", borrows=" + borrows + "]";
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Closes connections that have been idle longer than idle_timeout_ms, but never shrinks below min_size.
+    // The least recently used connections sit at the tail of the deque. Caller holds the lock.
+    private void evictIdle() {
+        if (idle_timeout_ms <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        Iterator<IdleConnection> it = idle.descendingIterator();
+        while (it.hasNext() && open_connections > min_size) {
+            IdleConnection entry = it.next();
+            if (now - entry.idle_since < idle_timeout_ms) {
+                break;
+            }
+            it.remove();
+            discard(entry.con);
+            connections_evicted++;
+        }
+    }
+
+    // Caller holds the lock
+    private void discard(Connection con) {
+        open_connections--;
+        ConnectionFactory.closeQuietly(con);
+    }
+
+    private Connection openConnection() {
+        Connection con = ConnectionFactory.getDefaultParameterConnection(dbType);
+        lock.lock();
+        try {
+            connections_created++;
+        } finally {
+            lock.unlock();
+        }
+        return con;
+    }
+
+    private static boolean isValid(Connection con) {
+        try {
+            return !con.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+}
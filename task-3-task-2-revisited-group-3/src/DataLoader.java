@@ -0,0 +1,386 @@
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntToDoubleFunction;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+/**
+ * Creates and fills blocking_data for all drivers. The sequential modes draw the rows from
+ * the driver's Random in data_id order, so they all produce the same table for the same seed.
+ * PARALLEL_COPY derives each value from (seed, data_id) instead, so its table does not depend
+ * on how the data_id space is split across loader threads.
+ */
+public class DataLoader {
+    public static final String INSERT = "insert"; // batched single-row INSERTs
+    public static final String COPY_TEXT = "copy-text"; // COPY FROM STDIN, text format
+    public static final String COPY_BINARY = "copy-binary"; // COPY FROM STDIN, binary format
+    public static final String PARALLEL_COPY = "parallel-copy"; // binary COPY of load_threads ranges over load_threads connections
+
+    public static String load_mode = COPY_BINARY;
+    public static int copy_buffer_size = 1 << 16; // bytes handed to the driver per writeToCopy call
+    public static int load_threads = Runtime.getRuntime().availableProcessors();
+    public static boolean use_dataset_cache = false; // opt-in: keep a template copy of every generated table and restore from it, see DatasetCache
+    public static int insert_chunk_size = 10000; // rows per executeBatch in INSERT mode
+    public static int insert_commit_every = 1000000; // rows per transaction in INSERT mode
+    public static boolean value_index = false; // secondary index on data_value, so range updates need not scan the whole table
+
+    static final String CREATE_TABLE = "CREATE TABLE blocking_data ( data_id integer primary key, data_value float, modified_by integer);";
+    static final String CREATE_TABLE_NO_KEY = "CREATE TABLE blocking_data ( data_id integer, data_value float, modified_by integer);";
+    static final String ADD_PRIMARY_KEY = "ALTER TABLE blocking_data ADD PRIMARY KEY (data_id);";
+    static final String CREATE_VALUE_INDEX = "CREATE INDEX blocking_data_value_idx ON blocking_data (data_value);";
+
+    // Binary COPY: 11 byte signature, 32 bit flags, 32 bit header extension length
+    static final byte[] BINARY_SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0};
+    static final int BINARY_ROW_SIZE = 2 + (4 + 4) + (4 + 8) + (4 + 4);
+
+    /**
+     * Drops and recreates blocking_data with num_tuple rows, data_value drawn from rand, which
+     * must be a fresh new Random(seed). With the dataset cache enabled a table built earlier
+     * from the same parameters is restored instead; rand is then advanced exactly as a real
+     * load would have, so the tasks created afterwards are the same either way. With
+     * value_index set, the data_value index is built afterwards in both cases. A failed load
+     * throws a RuntimeException instead of leaving a partial table behind for the run.
+     */
+    public static void createDB(int num_tuple, double max_value, long seed, Random rand) {
+        createData(num_tuple, max_value, seed, rand);
+        if (value_index) {
+            createValueIndex();
+        }
+    }
+
+    static void createData(int num_tuple, double max_value, long seed, Random rand) {
+        Connection con = null;
+        try {
+            if (!use_dataset_cache) {
+                load(num_tuple, max_value, rand);
+                return;
+            }
+
+            boolean parallel = PARALLEL_COPY.equals(load_mode);
+            DatasetCache cache = new DatasetCache(seed, num_tuple, max_value, generator());
+            con = ConnectionFactory.getDefaultParameterConnection(ConnectionFactory.POSTGRESQL);
+            if (cache.restore(con)) {
+                if (parallel) {
+                    rand.nextLong();
+                } else {
+                    for (int i = 0; i < num_tuple; i++) {
+                        rand.nextDouble();
+                    }
+                }
+                return;
+            }
+            load(num_tuple, max_value, rand);
+            cache.save(con); // only a complete load becomes a template
+        } catch (SQLException e) {
+            // A partly loaded table must not be measured, nor restored by later runs
+            throw new RuntimeException("Failed to load blocking_data", e);
+        } finally {
+            ConnectionFactory.closeQuietly(con);
+        }
+    }
+
+    /**
+     * How the row values are derived from the seed under the current load_mode, see the
+     * class comment. Tables built with the same seed and generator are identical.
+     */
+    static String generator() {
+        return PARALLEL_COPY.equals(load_mode) ? "splitmix64" : "java.util.Random";
+    }
+
+    /**
+     * Builds the data_value index on the loaded table and refreshes the statistics, so the
+     * planner can pick an index scan for narrow ranges and still scans for wide ones.
+     */
+    static void createValueIndex() {
+        Connection con = ConnectionFactory.getDefaultParameterConnection(ConnectionFactory.POSTGRESQL);
+        try {
+            long start = System.nanoTime();
+            executeSQL(CREATE_VALUE_INDEX, con);
+            executeSQL("ANALYZE blocking_data;", con);
+            System.out.println("data_value index built in " + String.format("%.3f", (System.nanoTime() - start) / 1e9) + " s");
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            ConnectionFactory.closeQuietly(con);
+        }
+    }
+
+    static void load(int num_tuple, double max_value, Random rand) throws SQLException {
+        if (PARALLEL_COPY.equals(load_mode)) {
+            createDBParallel(num_tuple, max_value, rand.nextLong(), load_threads);
+            return;
+        }
+        Connection con = ConnectionFactory.getDefaultParameterConnection(ConnectionFactory.POSTGRESQL);
+        try {
+            executeSQL("DROP TABLE IF EXISTS blocking_data;", con);
+            executeSQL(CREATE_TABLE, con);
+            con.setAutoCommit(false);
+
+            long start = System.nanoTime();
+            long rows;
+            IntToDoubleFunction value_of = data_id -> rand.nextDouble() * max_value; // called in data_id order
+            if (INSERT.equals(load_mode)) {
+                rows = loadInsert(con, num_tuple, value_of);
+            } else if (COPY_TEXT.equals(load_mode)) {
+                rows = loadCopyText(con, 0, num_tuple, value_of);
+            } else if (COPY_BINARY.equals(load_mode)) {
+                rows = loadCopyBinary(con, 0, num_tuple, value_of);
+            } else {
+                throw new IllegalArgumentException("Unknown load mode: " + load_mode);
+            }
+            con.commit();
+            reportThroughput(load_mode, rows, System.nanoTime() - start);
+        } finally {
+            ConnectionFactory.closeQuietly(con);
+        }
+    }
+
+    /**
+     * Loads [0, num_tuple) with threads connections, one contiguous data_id range each.
+     * The table is created without its primary key, which is built once after all ranges
+     * are committed instead of being maintained row by row.
+     */
+    public static void createDBParallel(int num_tuple, double max_value, long seed, int threads) throws SQLException {
+        Connection con = ConnectionFactory.getDefaultParameterConnection(ConnectionFactory.POSTGRESQL);
+        ExecutorService loaders = Executors.newFixedThreadPool(threads);
+        try {
+            executeSQL("DROP TABLE IF EXISTS blocking_data;", con);
+            executeSQL(CREATE_TABLE_NO_KEY, con);
+
+            long start = System.nanoTime();
+            IntToDoubleFunction value_of = data_id -> rowValue(seed, data_id) * max_value;
+            List<Future<Long>> parts = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                int from = (int) ((long) num_tuple * t / threads);
+                int to = (int) ((long) num_tuple * (t + 1) / threads);
+                parts.add(loaders.submit(() -> loadRange(from, to, value_of)));
+            }
+            long rows = 0;
+            for (Future<Long> part : parts) {
+                rows += part.get();
+            }
+            long loaded = System.nanoTime();
+            executeSQL(ADD_PRIMARY_KEY, con);
+            System.out.println("Primary key built in " + String.format("%.3f", (System.nanoTime() - loaded) / 1e9) + " s");
+            reportThroughput(PARALLEL_COPY + ", " + threads + " threads", rows, System.nanoTime() - start);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException("Loading a data_id range failed: " + e.getCause(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Parallel load interrupted", e);
+        } finally {
+            loaders.shutdownNow();
+            ConnectionFactory.closeQuietly(con);
+        }
+    }
+
+    // One loader thread: its own connection and transaction for the range [from, to)
+    static long loadRange(int from, int to, IntToDoubleFunction value_of) throws SQLException {
+        Connection con = ConnectionFactory.getDefaultParameterConnection(ConnectionFactory.POSTGRESQL);
+        try {
+            con.setAutoCommit(false);
+            long rows = loadCopyBinary(con, from, to, value_of);
+            con.commit();
+            return rows;
+        } finally {
+            ConnectionFactory.closeQuietly(con);
+        }
+    }
+
+    /**
+     * Value in [0, 1) for one row, a SplitMix64 hash of (seed, data_id). Independent of
+     * which thread generates the row and in which order.
+     */
+    static double rowValue(long seed, int data_id) {
+        long z = seed + (data_id + 1L) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        return (z >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Values of one INSERT chunk. Two of them circulate between the generator thread and the
+     * inserting thread, so client memory stays at two chunks no matter how large num_tuple is.
+     */
+    static class Chunk {
+        final double[] values;
+        int from;
+        int count; // -1 marks the end of the stream
+        Throwable failure; // set on the end marker if the generator failed
+
+        Chunk(int size) {
+            values = new double[size];
+        }
+    }
+
+    // Generates chunk n+1 on a separate thread while chunk n is bound and executed, commits every insert_commit_every rows
+    static long loadInsert(Connection con, int num_tuple, IntToDoubleFunction value_of) throws SQLException {
+        int chunk_size = Math.max(1, insert_chunk_size);
+        BlockingQueue<Chunk> free = new ArrayBlockingQueue<>(2);
+        BlockingQueue<Chunk> full = new ArrayBlockingQueue<>(2);
+        free.add(new Chunk(chunk_size));
+        free.add(new Chunk(chunk_size));
+
+        Thread generator = new Thread(() -> {
+            Chunk chunk = null; // taken from free but not handed over yet
+            try {
+                for (int from = 0; from < num_tuple; from += chunk_size) {
+                    chunk = free.take();
+                    chunk.from = from;
+                    chunk.count = Math.min(chunk_size, num_tuple - from);
+                    for (int i = 0; i < chunk.count; i++) {
+                        chunk.values[i] = value_of.applyAsDouble(from + i); // data_id order, value_of is only used by this thread
+                    }
+                    full.put(chunk);
+                    chunk = null;
+                }
+                Chunk end = free.take();
+                end.count = -1;
+                full.put(end);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException | Error e) {
+                // Hand the failure to the loader, which would otherwise wait for the next chunk forever
+                try {
+                    Chunk end = chunk != null ? chunk : free.take();
+                    end.count = -1;
+                    end.failure = e;
+                    full.put(end);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "insert-chunk-generator");
+        generator.setDaemon(true);
+        generator.start();
+
+        PreparedStatement ps = con.prepareStatement("INSERT INTO blocking_data VALUES (?, ?, ?)");
+        long rows = 0;
+        long uncommitted = 0;
+        try {
+            while (true) {
+                Chunk chunk = full.take();
+                if (chunk.count < 0) {
+                    if (chunk.failure != null) {
+                        throw new SQLException("Generating the rows of blocking_data failed: " + chunk.failure, chunk.failure);
+                    }
+                    break;
+                }
+                for (int i = 0; i < chunk.count; i++) {
+                    ps.setInt(1, chunk.from + i);
+                    ps.setDouble(2, chunk.values[i]);
+                    ps.setInt(3, 0);
+                    ps.addBatch();
+                }
+                free.put(chunk);
+                for (int result : ps.executeBatch()) {
+                    rows += Math.max(result, 0);
+                }
+                uncommitted += chunk.count;
+                if (uncommitted >= insert_commit_every) {
+                    con.commit();
+                    uncommitted = 0;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while loading blocking_data", e);
+        } finally {
+            generator.interrupt();
+            ps.close();
+        }
+        return rows;
+    }
+
+    // Rows are written straight into a fixed-size buffer and streamed, nothing is kept per row
+    static long loadCopyText(Connection con, int from, int to, IntToDoubleFunction value_of) throws SQLException {
+        CopyIn copy = con.unwrap(PGConnection.class).getCopyAPI()
+                .copyIn("COPY blocking_data (data_id, data_value, modified_by) FROM STDIN (FORMAT text)");
+        try {
+            byte[] buffer = new byte[copy_buffer_size];
+            int pos = 0;
+            StringBuilder line = new StringBuilder(48);
+            for (int i = from; i < to; i++) {
+                line.setLength(0);
+                line.append(i).append('\t').append(value_of.applyAsDouble(i)).append('\t').append(0).append('\n');
+                // The line is plain ASCII, one char per byte
+                if (pos + line.length() > buffer.length) {
+                    copy.writeToCopy(buffer, 0, pos);
+                    pos = 0;
+                }
+                for (int c = 0; c < line.length(); c++) {
+                    buffer[pos++] = (byte) line.charAt(c);
+                }
+            }
+            if (pos > 0) {
+                copy.writeToCopy(buffer, 0, pos);
+            }
+            return copy.endCopy();
+        } finally {
+            if (copy.isActive()) {
+                copy.cancelCopy();
+            }
+        }
+    }
+
+    static long loadCopyBinary(Connection con, int from, int to, IntToDoubleFunction value_of) throws SQLException {
+        CopyIn copy = con.unwrap(PGConnection.class).getCopyAPI()
+                .copyIn("COPY blocking_data (data_id, data_value, modified_by) FROM STDIN (FORMAT binary)");
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(Math.max(copy_buffer_size, 64)); // network byte order
+            buffer.put(BINARY_SIGNATURE).putInt(0).putInt(0);
+            for (int i = from; i < to; i++) {
+                if (buffer.remaining() < BINARY_ROW_SIZE) {
+                    copy.writeToCopy(buffer.array(), 0, buffer.position());
+                    buffer.clear();
+                }
+                buffer.putShort((short) 3);
+                buffer.putInt(4).putInt(i);
+                buffer.putInt(8).putDouble(value_of.applyAsDouble(i));
+                buffer.putInt(4).putInt(0);
+            }
+            if (buffer.remaining() < 2) {
+                copy.writeToCopy(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+            buffer.putShort((short) -1); // file trailer
+            copy.writeToCopy(buffer.array(), 0, buffer.position());
+            return copy.endCopy();
+        } finally {
+            if (copy.isActive()) {
+                copy.cancelCopy();
+            }
+        }
+    }
+
+    static void reportThroughput(String mode, long rows, long elapsed_nanos) {
+        double seconds = elapsed_nanos / 1e9;
+        double rows_per_second = seconds > 0 ? rows / seconds : 0;
+        System.out.println("Inserted " + rows + " records (" + mode + ") in " + String.format("%.3f", seconds)
+                + " s: " + String.format("%.0f", rows_per_second) + " rows/s");
+    }
+
+    static void executeSQL(String sql, Connection con) throws SQLException {
+        Statement stmt = con.createStatement();
+        stmt.execute(sql);
+        System.out.println("Executing " + sql);
+        stmt.close();
+    }
+}
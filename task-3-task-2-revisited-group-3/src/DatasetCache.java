@@ -0,0 +1,132 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Keeps a pristine copy of every generated blocking_data table, fingerprinted by the
+ * parameters that determine its content (seed, num_tuple, max_value, generator).
+ * A run with a known fingerprint restores blocking_data from the template with a
+ * server-side copy instead of generating and shipping every row again.
+ *
+ * Off unless DataLoader.use_dataset_cache is set: every template is a full copy of
+ * blocking_data, kept in blocking_data_template_<id> tables next to blocking_data_meta.
+ */
+public class DatasetCache {
+    static final String CREATE_META = "CREATE TABLE IF NOT EXISTS blocking_data_meta ("
+            + " template_id serial primary key, seed bigint not null, num_tuple integer not null,"
+            + " max_value float not null, generator text not null, created_at timestamptz not null default now(),"
+            + " UNIQUE (seed, num_tuple, max_value, generator));";
+
+    final long seed;
+    final int num_tuple;
+    final double max_value;
+    final String generator; // how values are derived from the seed, see DataLoader
+
+    public DatasetCache(long seed, int num_tuple, double max_value, String generator) {
+        this.seed = seed;
+        this.num_tuple = num_tuple;
+        this.max_value = max_value;
+        this.generator = generator;
+    }
+
+    /**
+     * Replaces blocking_data with a copy of the matching template. Returns false if there is
+     * no template for this fingerprint yet, in which case blocking_data is left untouched.
+     */
+    public boolean restore(Connection con) throws SQLException {
+        DataLoader.executeSQL(CREATE_META, con);
+        String template = findTemplate(con);
+        if (template == null) {
+            System.out.println("Dataset cache miss for " + this);
+            return false;
+        }
+
+        long start = System.nanoTime();
+        boolean auto_commit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        try {
+            DataLoader.executeSQL("DROP TABLE IF EXISTS blocking_data;", con);
+            DataLoader.executeSQL("CREATE TABLE blocking_data AS SELECT * FROM " + template + ";", con);
+            DataLoader.executeSQL(DataLoader.ADD_PRIMARY_KEY, con);
+            con.commit();
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            con.setAutoCommit(auto_commit);
+        }
+        System.out.println("Dataset cache hit for " + this + ", restored from " + template + " in "
+                + String.format("%.3f", (System.nanoTime() - start) / 1e6) + " ms");
+        return true;
+    }
+
+    /**
+     * Snapshots the freshly loaded blocking_data as the template for this fingerprint.
+     */
+    public void save(Connection con) throws SQLException {
+        boolean auto_commit = con.getAutoCommit();
+        con.setAutoCommit(false);
+        try {
+            DataLoader.executeSQL(CREATE_META, con);
+            PreparedStatement ps = con.prepareStatement(
+                    "INSERT INTO blocking_data_meta (seed, num_tuple, max_value, generator) VALUES (?, ?, ?, ?) "
+                            + "ON CONFLICT (seed, num_tuple, max_value, generator) DO UPDATE SET created_at = now() "
+                            + "RETURNING template_id");
+            bind(ps);
+            ResultSet rs = ps.executeQuery();
+            rs.next();
+            String template = templateName(rs.getInt(1));
+            rs.close();
+            ps.close();
+
+            DataLoader.executeSQL("DROP TABLE IF EXISTS " + template + ";", con);
+            DataLoader.executeSQL("CREATE TABLE " + template + " AS SELECT * FROM blocking_data;", con);
+            con.commit();
+            System.out.println("Dataset cached as " + template + " for " + this);
+        } catch (SQLException e) {
+            con.rollback();
+            throw e;
+        } finally {
+            con.setAutoCommit(auto_commit);
+        }
+    }
+
+    // Name of the template table, or null if it is not registered or was dropped by hand
+    String findTemplate(Connection con) throws SQLException {
+        PreparedStatement ps = con.prepareStatement(
+                "SELECT template_id FROM blocking_data_meta WHERE seed = ? AND num_tuple = ? AND max_value = ? AND generator = ?");
+        bind(ps);
+        ResultSet rs = ps.executeQuery();
+        String template = rs.next() ? templateName(rs.getInt(1)) : null;
+        rs.close();
+        ps.close();
+        if (template == null) {
+            return null;
+        }
+
+        ps = con.prepareStatement("SELECT to_regclass(?) IS NOT NULL");
+        ps.setString(1, template);
+        rs = ps.executeQuery();
+        boolean exists = rs.next() && rs.getBoolean(1);
+        rs.close();
+        ps.close();
+        return exists ? template : null;
+    }
+
+    private void bind(PreparedStatement ps) throws SQLException {
+        ps.setLong(1, seed);
+        ps.setInt(2, num_tuple);
+        ps.setDouble(3, max_value);
+        ps.setString(4, generator);
+    }
+
+    static String templateName(int template_id) {
+        return "blocking_data_template_" + template_id;
+    }
+
+    @Override
+    public String toString() {
+        return "[seed=" + seed + ", num_tuple=" + num_tuple + ", max_value=" + max_value + ", generator=" + generator + "]";
+    }
+}
@@ -0,0 +1,175 @@
+import java.util.random.RandomGenerator;
+
+/**
+ * Chooses data_ids in [0, num_tuple) for point reads and writes. Parsed from a short
+ * spec string so it can be set in a workload file:
+ *
+ * <pre>
+ * uniform            every key equally likely
+ * zipfian:0.99       P(rank k) ~ 1 / k^theta, rank 1 is data_id 0
+ * hotspot:0.8:0.2    80% of the accesses go to the first 20% of the keys, the rest to the others
+ * latest:0.99        zipfian, but rank 1 is the highest data_id (most recently inserted)
+ * </pre>
+ */
+public abstract class KeyDistribution {
+    final int num_tuple;
+    final String spec;
+
+    KeyDistribution(int num_tuple, String spec) {
+        if (num_tuple < 1) {
+            throw new IllegalArgumentException("num_tuple must be positive");
+        }
+        this.num_tuple = num_tuple;
+        this.spec = spec;
+    }
+
+    /**
+     * Returns one data_id in [0, num_tuple).
+     */
+    public abstract int next(RandomGenerator rand);
+
+    public static KeyDistribution parse(String spec, int num_tuple) {
+        String[] parts = spec.trim().split(":");
+        String name = parts[0].trim();
+        try {
+            switch (name) {
+                case "uniform":
+                    return new Uniform(num_tuple);
+                case "zipfian":
+                    return new Zipfian(num_tuple, parts.length > 1 ? Double.parseDouble(parts[1]) : 0.99, false, spec);
+                case "latest":
+                    return new Zipfian(num_tuple, parts.length > 1 ? Double.parseDouble(parts[1]) : 0.99, true, spec);
+                case "hotspot":
+                    return new Hotspot(num_tuple,
+                            parts.length > 1 ? Double.parseDouble(parts[1]) : 0.8,
+                            parts.length > 2 ? Double.parseDouble(parts[2]) : 0.2, spec);
+                default:
+                    throw new IllegalArgumentException("Unknown key distribution: " + spec);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid key distribution: " + spec, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+
+    static class Uniform extends KeyDistribution {
+        Uniform(int num_tuple) {
+            super(num_tuple, "uniform");
+        }
+
+        @Override
+        public int next(RandomGenerator rand) {
+            return rand.nextInt(num_tuple);
+        }
+    }
+
+    /**
+     * Hotspot: a fraction hot_traffic of the accesses hits the first hot_keys fraction of the key space.
+     */
+    static class Hotspot extends KeyDistribution {
+        final double hot_traffic;
+        final int hot_size;
+
+        Hotspot(int num_tuple, double hot_traffic, double hot_keys, String spec) {
+            super(num_tuple, spec);
+            if (hot_traffic < 0 || hot_traffic > 1 || hot_keys <= 0 || hot_keys > 1) {
+                throw new IllegalArgumentException("Invalid hotspot parameters: " + spec);
+            }
+            this.hot_traffic = hot_traffic;
+            this.hot_size = Math.max(1, (int) (num_tuple * hot_keys));
+        }
+
+        @Override
+        public int next(RandomGenerator rand) {
+            if (hot_size == num_tuple || rand.nextDouble() < hot_traffic) {
+                return rand.nextInt(hot_size);
+            }
+            return hot_size + rand.nextInt(num_tuple - hot_size);
+        }
+    }
+
+    /**
+     * Zipf distribution over ranks 1..num_tuple, sampled by rejection-inversion
+     * (Hoermann and Derflinger, 1996). Needs no table, so setup is O(1) for any table
+     * size, and works for every theta > 0.
+     */
+    static class Zipfian extends KeyDistribution {
+        final double theta;
+        final boolean latest;
+        private final double h_integral_x1;
+        private final double h_integral_n;
+        private final double s;
+
+        Zipfian(int num_tuple, double theta, boolean latest, String spec) {
+            super(num_tuple, spec);
+            if (!(theta > 0)) {
+                throw new IllegalArgumentException("Zipfian theta must be positive: " + spec);
+            }
+            this.theta = theta;
+            this.latest = latest;
+            h_integral_x1 = hIntegral(1.5) - 1.0;
+            h_integral_n = hIntegral(num_tuple + 0.5);
+            s = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2.0));
+        }
+
+        @Override
+        public int next(RandomGenerator rand) {
+            int rank = sampleRank(rand);
+            return latest ? num_tuple - rank : rank - 1;
+        }
+
+        int sampleRank(RandomGenerator rand) {
+            while (true) {
+                double u = h_integral_n + rand.nextDouble() * (h_integral_x1 - h_integral_n);
+                double x = hIntegralInverse(u);
+                int k = (int) (x + 0.5);
+                if (k < 1) {
+                    k = 1;
+                } else if (k > num_tuple) {
+                    k = num_tuple;
+                }
+                if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+        private double h(double x) {
+            return Math.exp(-theta * Math.log(x));
+        }
+
+        // Integral of h from 1 to x, shifted by a constant
+        private double hIntegral(double x) {
+            double log_x = Math.log(x);
+            return helper2((1.0 - theta) * log_x) * log_x;
+        }
+
+        private double hIntegralInverse(double x) {
+            double t = x * (1.0 - theta);
+            if (t < -1.0) {
+                t = -1.0; // rounding guard, keeps log1p defined
+            }
+            return Math.exp(helper1(t) * x);
+        }
+
+        // log(1 + x) / x, stable near 0
+        private static double helper1(double x) {
+            if (Math.abs(x) > 1e-8) {
+                return Math.log1p(x) / x;
+            }
+            return 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+        }
+
+        // (exp(x) - 1) / x, stable near 0
+        private static double helper2(double x) {
+            if (Math.abs(x) > 1e-8) {
+                return Math.expm1(x) / x;
+            }
+            return 1.0 + x * 0.5 * (1.0 + x * (1.0 / 3.0) * (1.0 + 0.25 * x));
+        }
+    }
+}
@@ -0,0 +1,112 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Client-side lock table for the known write sets of the Blockers. A write transaction
+ * locks the stripes of all its data_ids before it starts and keeps them until it has
+ * committed, so two transactions that write a common row never run at the same time: the
+ * later one queues behind the earlier one, and transactions on disjoint rows run
+ * concurrently. Stripes are taken in ascending order, so the waits cannot form a cycle,
+ * and the database never sees two point writes racing for the same rows, which were the
+ * source of their deadlocks. Locks are fair, so queued transactions go in arrival order.
+ *
+ * Range updates select rows by data_value, their write set is not known up front, so
+ * they lock the whole table (every stripe).
+ *
+ * The wait happens on the worker thread that runs the transaction: a blocked write set
+ * is not parked by the executor, it holds its worker until the stripes are free. Under
+ * hotspot or zipfian skew several workers can sit on the same hot stripe, and the reads
+ * queued behind them wait too. toString() reports the time workers spent blocked here
+ * and the most workers blocked at once, so this shows up in the benchmark output.
+ */
+public class KeyLockTable {
+    public static int default_stripes = 4096; // rounded up to a power of two
+
+    private final ReentrantLock[] stripes;
+    private final int[] all_stripes;
+    private final AtomicLong acquisitions = new AtomicLong(0);
+    private final AtomicLong waits = new AtomicLong(0);
+    private final AtomicLong blocked_nanos = new AtomicLong(0); // worker time spent waiting for stripes
+    private final AtomicInteger blocked = new AtomicInteger(0); // workers waiting right now
+    private final AtomicInteger max_blocked = new AtomicInteger(0);
+
+    public KeyLockTable() {
+        this(default_stripes);
+    }
+
+    public KeyLockTable(int num_stripes) {
+        int n = Integer.highestOneBit(Math.max(1, num_stripes - 1)) << 1;
+        stripes = new ReentrantLock[n];
+        all_stripes = new int[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new ReentrantLock(true);
+            all_stripes[i] = i;
+        }
+    }
+
+    /**
+     * Locks every stripe that one of data_ids maps to and returns them, to be passed to
+     * unlock() after the transaction ended.
+     */
+    public int[] lock(int[] data_ids) {
+        int[] held = new int[data_ids.length];
+        for (int i = 0; i < data_ids.length; i++) {
+            held[i] = data_ids[i] & (stripes.length - 1); // consecutive ids land on different stripes
+        }
+        Arrays.sort(held);
+        int n = 0;
+        for (int i = 0; i < held.length; i++) {
+            if (n == 0 || held[i] != held[n - 1]) {
+                held[n++] = held[i];
+            }
+        }
+        held = Arrays.copyOf(held, n);
+        lockStripes(held);
+        return held;
+    }
+
+    /**
+     * Locks the whole table, for transactions whose write set is not known in advance.
+     */
+    public int[] lockAll() {
+        lockStripes(all_stripes);
+        return all_stripes;
+    }
+
+    public void unlock(int[] held) {
+        for (int i = held.length - 1; i >= 0; i--) {
+            stripes[held[i]].unlock();
+        }
+    }
+
+    // held must be sorted ascending and free of duplicates
+    private void lockStripes(int[] held) {
+        acquisitions.incrementAndGet();
+        boolean waited = false;
+        long start = 0;
+        for (int stripe : held) {
+            ReentrantLock lock = stripes[stripe];
+            if (!waited && lock.isLocked()) {
+                waited = true; // only for the statistics, tryLock() would barge past the queue
+                start = System.nanoTime();
+                int now_blocked = blocked.incrementAndGet();
+                max_blocked.accumulateAndGet(now_blocked, Math::max);
+            }
+            lock.lock();
+        }
+        if (waited) {
+            blocked.decrementAndGet();
+            blocked_nanos.addAndGet(System.nanoTime() - start);
+            waits.incrementAndGet();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Key lock table: " + stripes.length + " stripes, " + acquisitions.get() + " write sets locked, "
+                + waits.get() + " had to wait, workers blocked for " + blocked_nanos.get() / 1_000_000 + " ms in total, at most "
+                + max_blocked.get() + " at once (blocked workers run nothing else meanwhile)";
+    }
+}
@@ -0,0 +1,20 @@
+/**
+ * A task that can tell up front which rows it touches and what kind of transaction it
+ * is, so an executor can place it by its keys (see LaneExecutor) or its class (see
+ * ClassPoolExecutor).
+ */
+public interface KeyedTask extends Runnable {
+
+    /**
+     * The data_ids the task reads or writes, null if they are not known in advance
+     * (full scans, range updates on data_value).
+     */
+    int[] keys();
+
+    boolean writes();
+
+    /**
+     * The WorkloadSpec kind of the transaction, e.g. WorkloadSpec.SCAN.
+     */
+    String kind();
+}
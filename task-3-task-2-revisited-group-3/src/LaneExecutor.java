@@ -0,0 +1,194 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Partitioned execution in the style of H-Store: data_id is hashed or range-partitioned
+ * into N lanes, each with its own queue and a single worker thread. A transaction whose
+ * keys all fall into one lane runs there, one after the other with the lane's other
+ * transactions, so single-partition transactions never contend with another lane.
+ *
+ * A transaction spanning several lanes, or a write whose keys are unknown (range update,
+ * all lanes), takes the coordinated path: a barrier is queued on every lane it touches,
+ * and the last lane to reach its barrier runs the transaction while the others wait.
+ * Barriers are queued by the single submitting thread, so they are in the same order on
+ * every lane and two multi-lane transactions cannot wait for each other. Read-only tasks
+ * without keys (scans) take no row locks and are spread round-robin over the lanes.
+ */
+public class LaneExecutor extends AbstractExecutorService {
+    public static final String HASH = "hash";
+    public static final String RANGE = "range";
+
+    public static String partitioning = HASH;
+    public static int key_space = 50000; // data_ids are in [0, key_space), set by the driver, used by RANGE
+
+    private final ExecutorService[] lanes;
+    private final String mode;
+    private final int space;
+    private final AtomicLong[] single_partition;
+    private final AtomicLong multi_partition = new AtomicLong(0);
+    private final AtomicInteger next_lane = new AtomicInteger(0);
+
+    public LaneExecutor(int num_lanes) {
+        this(num_lanes, partitioning, key_space);
+    }
+
+    public LaneExecutor(int num_lanes, String mode, int space) {
+        if (!HASH.equals(mode) && !RANGE.equals(mode)) {
+            throw new IllegalArgumentException("Unknown partitioning: " + mode);
+        }
+        this.mode = mode;
+        this.space = Math.max(1, space);
+        lanes = new ExecutorService[num_lanes];
+        single_partition = new AtomicLong[num_lanes];
+        for (int i = 0; i < num_lanes; i++) {
+            lanes[i] = Executors.newSingleThreadExecutor();
+            single_partition[i] = new AtomicLong(0);
+        }
+    }
+
+    int laneOf(int data_id) {
+        if (RANGE.equals(mode)) {
+            return (int) Math.min(lanes.length - 1, Math.max(0, (long) data_id * lanes.length / space));
+        }
+        return (int) Math.floorMod(TaskRandom.mix64(data_id), (long) lanes.length);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        execute(task, task);
+    }
+
+    /**
+     * Places body by the keys of task, which is body itself or the task body wraps.
+     */
+    public void execute(Runnable task, Runnable body) {
+        boolean[] touched = new boolean[lanes.length];
+        int count = 0;
+        int first = -1;
+        int[] keys = task instanceof KeyedTask ? ((KeyedTask) task).keys() : null;
+        if (keys != null) {
+            for (int data_id : keys) {
+                int lane = laneOf(data_id);
+                if (!touched[lane]) {
+                    touched[lane] = true;
+                    count++;
+                    first = first < 0 ? lane : first;
+                }
+            }
+        } else if (task instanceof KeyedTask && ((KeyedTask) task).writes()) {
+            // Write set unknown: it may touch every partition
+            for (int i = 0; i < lanes.length; i++) {
+                touched[i] = true;
+            }
+            count = lanes.length;
+        }
+
+        if (count == 0) {
+            first = Math.floorMod(next_lane.getAndIncrement(), lanes.length);
+            count = 1;
+        }
+        if (count == 1) {
+            single_partition[first].incrementAndGet();
+            lanes[first].execute(body);
+            return;
+        }
+
+        multi_partition.incrementAndGet();
+        AtomicInteger waiting = new AtomicInteger(count);
+        CountDownLatch done = new CountDownLatch(1);
+        for (int i = 0; i < lanes.length; i++) {
+            if (touched[i]) {
+                lanes[i].execute(() -> {
+                    if (waiting.decrementAndGet() == 0) {
+                        // All involved lanes are parked at this barrier, run on the last one
+                        try {
+                            body.run();
+                        } finally {
+                            done.countDown();
+                        }
+                    } else {
+                        awaitQuietly(done);
+                    }
+                });
+            }
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> pending = new ArrayList<>();
+        for (ExecutorService lane : lanes) {
+            pending.addAll(lane.shutdownNow());
+        }
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        for (ExecutorService lane : lanes) {
+            if (!lane.isShutdown()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        for (ExecutorService lane : lanes) {
+            if (!lane.isTerminated()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ExecutorService lane : lanes) {
+            if (!lane.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Lanes: " + lanes.length + " (" + mode + " partitioning), single-partition tasks per lane [");
+        for (int i = 0; i < lanes.length; i++) {
+            sb.append(i == 0 ? "" : ", ").append(single_partition[i].get());
+        }
+        return sb.append("], multi-partition ").append(multi_partition.get()).toString();
+    }
+}
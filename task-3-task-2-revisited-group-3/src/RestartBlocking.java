@@ -1,14 +1,8 @@
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Random;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.SplittableRandom;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.HashSet;
 
 /**
  *
@@ -37,19 +31,34 @@ public class RestartBlocking {
 
     public static int num_tasks = 30;
     public static int num_queries_per_task = 3;
+    public static String read_mode = BlockingQueries.PER_KEY; // BlockingQueries.PER_KEY (baseline) or BlockingQueries.BATCHED
+    public static String write_mode = BlockingQueries.PER_KEY; // BlockingQueries.PER_KEY (baseline), JDBC_BATCH, SINGLE_STATEMENT or ORDERED
+    public static String connection_mode = "per-task"; // "per-task" (baseline) or "pooled"
+    public static boolean key_locks = false; // serialize conflicting writes with a KeyLockTable
+    public static String[] write_mode_sweep = {}; // if not empty, e.g. {SINGLE_STATEMENT, ORDERED}, compares retries and throughput per write mode
+    public static String[] backoff_sweep = {}; // if not empty, e.g. {UNIFORM, EXPONENTIAL, DECORRELATED, CAPPED}, compares run time per BackoffPolicy mode
     int nThreads = 4;
 
-    Random rand = new Random(123456);
+    long seed = 123456;
+    Random rand = new Random(seed); // table data only, tasks use their own TaskRandom stream
     int num_tuple = 50000;
     double max_value = 50.0f;
     AtomicInteger tasks_finished;
     AtomicInteger max_retry_counter;
     AtomicInteger deadlock_counter;
+    RetryClassifier errors = new RetryClassifier(); // counts SQLExceptions per SQLState class
+    WorkloadSpec spec;
+    KeyLockTable key_lock_table = new KeyLockTable();
 
     public RestartBlocking() {
         tasks_finished = new AtomicInteger(0);
         max_retry_counter = new AtomicInteger(0);
         deadlock_counter = new AtomicInteger(0);
+
+        // Transaction mix and table size, from -Dworkload=<file> or the hardcoded defaults above
+        spec = WorkloadSpec.fromSystemProperty(WorkloadSpec.defaultMix(num_tasks, num_queries_per_task, num_tuple, max_value));
+        num_tuple = spec.num_tuple;
+        max_value = spec.max_value;
     }
 
     void executeSQL(String sql, Connection con) {
@@ -65,178 +74,276 @@ public class RestartBlocking {
     }
 
     void createDB() {
-        try {
-            Connection con = ConnectionFactory.getDefaultParameterConnection(ConnectionFactory.POSTGRESQL);
-            executeSQL("DROP TABLE IF EXISTS blocking_data;", con);
-            executeSQL("CREATE TABLE blocking_data ( data_id integer primary key, data_value float, modified_by integer);", con);
-
-            PreparedStatement ps;
-            con.setAutoCommit(false);
-            ps = con.prepareStatement("INSERT INTO blocking_data VALUES (?, ?, ?)", ResultSet.TYPE_SCROLL_SENSITIVE, ResultSet.CONCUR_UPDATABLE);
-
-            for (int i = 0; i < num_tuple; i++) {
-                ps.setInt(1, i);
-                ps.setDouble(2, rand.nextDouble() * max_value);
-                ps.setInt(3, 0);
-                ps.addBatch();
-                ps.clearParameters();
-            }
+        DataLoader.createDB(num_tuple, max_value, seed, rand);
+    }
 
-            int[] results = ps.executeBatch();
-            con.commit();
-            con.close();
-            System.out.println(Arrays.stream(results).sum());
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+    // Tasks are generated lazily while earlier ones execute, see TaskSource
+    TaskSource createTasks() {
+        return new TaskSource(num_tasks, Blocker::new);
     }
 
-    public static void main(String[] args) {
-        // Create DB
-        RestartBlocking b = new RestartBlocking();
-        b.createDB();
+    void resetCounters() {
+        tasks_finished.set(0);
+        max_retry_counter.set(0);
+        deadlock_counter.set(0);
+        errors.reset();
+        BackoffPolicy.resetCounters();
+        rand = new Random(seed); // createDB() must see the same table data again
+    }
 
-        // Create tasks and their queries
-        ArrayList<RestartBlocking.Blocker> my_tasks = new ArrayList<>(num_tasks);
-        for (int task = 0; task < num_tasks; task++) {
-            my_tasks.add(b.new Blocker(task));
+    public static void main(String[] args) {
+        if (args.length > 0) {
+            connection_mode = args[0];
         }
+        ConnectionFactory.setPooled(connection_mode.equals("pooled"), ConnectionFactory.POSTGRESQL);
 
-        // Execute tasks
-        ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(b.nThreads); // Do not change the number of threads used
-        double start, stop;
-        start = System.currentTimeMillis();
-        for (Blocker task : my_tasks) {
-            executor.execute(task);
-        }
-        executor.shutdown();
+        RestartBlocking b = new RestartBlocking();
+        TaskRunner runner = new TaskRunner(b.nThreads, b.seed); // Do not change the number of threads used
+        num_tasks = b.spec.num_tasks;
+        LaneExecutor.key_space = b.num_tuple; // for range-partitioned lanes
 
-        // Wait for the tasks to finish
-        while (!executor.isTerminated()) {
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        if (TaskRunner.rate_sweep.length > 0) {
+            // Open-loop rate sweep: fresh table and tasks for every offered rate
+            runner.sweep(() -> {
+                b.resetCounters();
+                b.createDB();
+                return b.createTasks();
+            }, () -> "deadlocks " + b.deadlock_counter + ", max retries " + b.max_retry_counter + ", given up " + b.errors.getFailedTasks());
+        } else if (TaskRunner.concurrency_sweep.length > 0) {
+            // Fixed pool vs virtual threads at each in-flight count, fresh table and tasks per run
+            runner.compareExecutors(() -> {
+                b.resetCounters();
+                b.createDB();
+                return b.createTasks();
+            }, () -> "deadlocks " + b.deadlock_counter + ", max retries " + b.max_retry_counter + ", given up " + b.errors.getFailedTasks());
+        } else if (write_mode_sweep.length > 0) {
+            // Same tasks under every write mode, fresh table per run
+            StringBuilder summary = new StringBuilder("[WRITE MODES] " + num_tasks + " tasks, " + b.nThreads + " threads\n");
+            for (String mode : write_mode_sweep) {
+                write_mode = mode;
+                b.resetCounters();
+                b.createDB();
+                RunStats stats = runner.run(b.createTasks());
+                String line = mode + ": " + stats + ", deadlocks " + b.deadlock_counter + ", max retries " + b.max_retry_counter
+                        + ", given up " + b.errors.getFailedTasks();
+                System.out.println("[WRITE MODES] " + line);
+                summary.append("  ").append(line).append('\n');
+            }
+            System.out.print(summary);
+        } else if (backoff_sweep.length > 0) {
+            // Same tasks under every back-off mode, fresh table per run; run times relative to the first mode
+            StringBuilder summary = new StringBuilder("[BACK-OFF] " + num_tasks + " tasks, " + b.nThreads + " threads\n");
+            double first_millis = 0;
+            for (String mode : backoff_sweep) {
+                BackoffPolicy.mode = mode;
+                b.resetCounters();
+                b.createDB();
+                RunStats stats = runner.run(b.createTasks());
+                if (first_millis == 0) {
+                    first_millis = stats.getElapsedMillis();
+                }
+                String line = mode + String.format(": %.0f ms (%.2fx of %s)", stats.getElapsedMillis(), stats.getElapsedMillis() / first_millis, backoff_sweep[0])
+                        + ", " + BackoffPolicy.getSleptMillis() + " ms backing off, deadlocks " + b.deadlock_counter + ", max retries " + b.max_retry_counter
+                        + ", given up " + b.errors.getFailedTasks() + ", " + stats;
+                System.out.println("[BACK-OFF] " + line);
+                summary.append("  ").append(line).append('\n');
             }
+            System.out.print(summary);
+        } else {
+            // Create DB
+            b.createDB();
+
+            // Create tasks and their queries
+            TaskSource my_tasks = b.createTasks();
+
+            // Execute tasks, recorded to a trace file if -Dtrace=<file> is set
+            TraceRecorder.startFromSystemProperty(b.seed, b.num_tuple, b.max_value, read_mode, write_mode, connection_mode, b.spec.toString());
+            RunStats stats = runner.run(my_tasks);
+            TraceRecorder.stop();
+            System.out.println("[DONE] Task execution after roughly " + stats.getElapsedMillis() + " ms finished: " + b.tasks_finished + " of " + num_tasks);
+            System.out.println("Arrivals: " + TaskRunner.arrival_mode + (TaskRunner.arrival_mode.equals(TaskRunner.CLOSED) ? "" : " at " + TaskRunner.arrival_rate + " tasks/s"));
+            System.out.println("Latency: " + stats);
         }
-        stop = System.currentTimeMillis();
-        System.out.println("[DONE] Task execution after roughly " + (stop - start) + " ms finished: " + b.tasks_finished + " of " + num_tasks);
         System.out.println("Deadlocks observed: " + b.deadlock_counter);
         System.out.println("Max number of retries for a task: " + b.max_retry_counter);
-        System.out.println("Number of queries per task: " + num_queries_per_task);
+        System.out.println(b.errors);
+        System.out.println(BackoffPolicy.stats());
+        System.out.println("Workload: " + b.spec);
         System.out.println("Number of Threads: " + b.nThreads);
+        System.out.println("Connection mode: " + connection_mode);
+        System.out.println("Read mode: " + read_mode);
+        System.out.println("Write mode: " + write_mode);
+        if (key_locks) {
+            System.out.println(b.key_lock_table);
+        }
+        System.out.println(StatementCache.stats());
+        System.out.println(SharedScan.stats());
+        System.out.println(SingleFlight.stats());
+        if (ConnectionFactory.isPooled()) {
+            System.out.println(ConnectionFactory.getPool());
+            ConnectionFactory.setPooled(false, ConnectionFactory.POSTGRESQL);
+        }
     }
 
     /**
      * This task simulates different types of transactions based on a probability distribution.
      */
-    public class Blocker implements Runnable {
+    public class Blocker implements KeyedTask {
         final int task;
         final double p;
-        final int[] data_ids;
+        final WorkloadSpec.TxType type;
+        final int[] data_ids; // null unless the type addresses rows by data_id
+        final double[] start_range; // only for range updates
+        final double[] stop_range;
+        final SplittableRandom task_rand; // this task's own stream, see TaskRandom
 
         public Blocker(int id) {
             this.task = id;
-            this.p = rand.nextDouble(); // Generate p in [0,1]
-
-            if (p < 0.7 || p >= 0.8) {
-                data_ids = new int[num_queries_per_task];
-                HashSet<Integer> used_ids = new HashSet<>();
-                for (int q = 0; q < num_queries_per_task; q++) {
-                    int data_id;
-                    do {
-                        data_id = rand.nextInt(num_tuple);
-                    } while (used_ids.contains(data_id));
-                    used_ids.add(data_id);
-                    data_ids[q] = data_id;
-                }
+            this.task_rand = TaskRandom.forTask(seed, id);
+            this.p = task_rand.nextDouble(); // Generate p in [0,1]
+            this.type = spec.pick(p);
+
+            data_ids = type.usesKeys() ? spec.drawKeys(task_rand, type) : null;
+            if (type.kind.equals(WorkloadSpec.RANGE_UPDATE)) {
+                start_range = new double[type.queries_per_task];
+                stop_range = new double[type.queries_per_task];
+                spec.drawRanges(task_rand, start_range, stop_range);
             } else {
-                data_ids = null; // Not needed for full table scan
+                start_range = null;
+                stop_range = null;
             }
         }
 
+        @Override
+        public int[] keys() {
+            return data_ids;
+        }
+
+        @Override
+        public boolean writes() {
+            return type.writes();
+        }
+
+        @Override
+        public String kind() {
+            return type.kind;
+        }
+
         @Override
         public void run() {
             int retries = 0;
             boolean success = false;
+            long start_nanos = TraceRecorder.now();
+            double[] values = null; // written by the current attempt, for the trace
+            long backoff_ms = 0; // last back-off of this task, see BackoffPolicy
+
+            int[] held_keys = null;
             Connection con = null;
             try {
-                con = ConnectionFactory.getDefaultParameterConnection(ConnectionFactory.POSTGRESQL);
-                con.setAutoCommit(false);
-                con.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
-
-            do {
+                // Writes with a common row queue behind each other here instead of deadlocking in the database
+                if (key_locks && type.writes()) {
+                    held_keys = type.kind.equals(WorkloadSpec.RANGE_UPDATE) ? key_lock_table.lockAll() : key_lock_table.lock(data_ids);
+                }
+                con = ConnectionFactory.getConnection(ConnectionFactory.POSTGRESQL);
                 try {
-                    if (p < 0.7) {
-                        // Read-only multi-point query
-                        double sum = 0;
-                        PreparedStatement ps = con.prepareStatement("SELECT data_value FROM blocking_data WHERE data_id = ?");
-                        for (int q = 0; q < num_queries_per_task; q++) {
-                            ps.setInt(1, data_ids[q]);
-                            ResultSet rs = ps.executeQuery();
-                            if (rs.next()) {
-                                sum += rs.getDouble(1);
+                    con.setAutoCommit(false);
+                    con.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+
+                do {
+                    try {
+                        if (type.kind.equals(WorkloadSpec.POINT_READ)) {
+                            // Read-only multi-point query
+                            double sum = SingleFlight.readPoints(con, data_ids, read_mode);
+                            con.commit();
+                            int num_finished = tasks_finished.incrementAndGet();
+                            System.out.println("Task " + task + " (Read multi-point query). Sum: " + sum + ". I am finisher number " + num_finished);
+                            success = true;
+                        } else if (type.kind.equals(WorkloadSpec.SCAN)) {
+                            // Full table read-only scan
+                            double sum = SharedScan.scanSum(con);
+                            con.commit();
+                            int num_finished = tasks_finished.incrementAndGet();
+                            System.out.println("Task " + task + " (Full table scan). Sum: " + sum + ". I am finisher number " + num_finished);
+                            success = true;
+                        } else if (type.kind.equals(WorkloadSpec.RANGE_UPDATE)) {
+                            // Range updates on data_value
+                            values = new double[start_range.length];
+                            for (int q = 0; q < values.length; q++) {
+                                values[q] = task_rand.nextDouble() * max_value;
                             }
-                            rs.close();
+                            BlockingQueries.updateRanges(con, start_range, stop_range, values, task, write_mode);
+                            con.commit();
+                            int num_finished = tasks_finished.incrementAndGet();
+                            System.out.println("Done task " + task + " (Range update). I am finisher number " + num_finished);
+                            success = true;
+                        } else {
+                            // Write query
+                            values = new double[data_ids.length];
+                            for (int q = 0; q < values.length; q++) {
+                                values[q] = task_rand.nextDouble() * max_value;
+                            }
+                            BlockingQueries.writePoints(con, data_ids, values, task, write_mode);
+                            con.commit();
+                            int num_finished = tasks_finished.incrementAndGet();
+                            System.out.println("Done task " + task + " (Write). I am finisher number " + num_finished);
+                            success = true;
                         }
-                        con.commit();
-                        int num_finished = tasks_finished.incrementAndGet();
-                        System.out.println("Task " + task + " (Read multi-point query). Sum: " + sum + ". I am finisher number " + num_finished);
-                        success = true;
-                    } else if (p >= 0.7 && p < 0.8) {
-                        // Full table read-only scan
-                        PreparedStatement ps = con.prepareStatement("SELECT SUM(data_value) FROM blocking_data");
-                        ResultSet rs = ps.executeQuery();
-                        double sum = 0;
-                        if (rs.next()) {
-                            sum = rs.getDouble(1);
+                    } catch (SQLException e) {
+                        String error_class = errors.record(e);
+                        System.err.println("Task " + task + " encountered an error (" + error_class + ", SQLState " + e.getSQLState() + "): " + e.getMessage());
+                        executeSQL("ROLLBACK", con);
+                        String policy = RetryClassifier.policy(error_class, retries + 1);
+                        if (policy.equals(RetryClassifier.FAIL_FAST)) {
+                            errors.taskFailed();
+                            System.out.println("Task " + task + " - Rollback and give up after " + (retries + 1) + " attempts");
+                            break;
                         }
-                        rs.close();
-                        con.commit();
-                        int num_finished = tasks_finished.incrementAndGet();
-                        System.out.println("Task " + task + " (Full table scan). Sum: " + sum + ". I am finisher number " + num_finished);
-                        success = true;
-                    } else {
-                        // p >= 0.8, write query
-                        PreparedStatement ps = con.prepareStatement("UPDATE blocking_data SET data_value = ?, modified_by = ? WHERE data_id = ?");
-                        for (int q = 0; q < num_queries_per_task; q++) {
-                            ps.setDouble(1, rand.nextDouble() * max_value);
-                            ps.setInt(2, task);
-                            ps.setInt(3, data_ids[q]);
-                            ps.executeUpdate();
+                        if (!BackoffPolicy.tryRetry()) {
+                            errors.taskFailed();
+                            System.out.println("Task " + task + " - Rollback and give up, retry budget used up");
+                            break;
+                        }
+                        retries++;
+                        if (error_class.equals(RetryClassifier.DEADLOCK)) {
+                            deadlock_counter.incrementAndGet();
+                        }
+                        if (RetryClassifier.isConflict(error_class)) {
+                            ConcurrencyLimiter.conflict();
+                        }
+                        max_retry_counter.set(Math.max(max_retry_counter.get(), retries));
+                        System.out.println("Task " + task + " - Rollback and try again. #Retries: " + retries);
+                        if (policy.equals(RetryClassifier.RECONNECT)) {
+                            try {
+                                con = ConnectionFactory.reconnect(con, ConnectionFactory.POSTGRESQL);
+                            } catch (SQLException | RuntimeException ex) {
+                                ex.printStackTrace(); // still holding the old connection, the next attempt reconnects again
+                            }
+                        }
+                        try {
+                            // Back-off to reduce contention
+                            backoff_ms = BackoffPolicy.delayMillis(retries, backoff_ms, task_rand, nThreads);
+                            BackoffPolicy.sleep(backoff_ms);
+                            System.out.println("Task: " + task + " Back-off time: " + backoff_ms + "ms");
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
                         }
-                        con.commit();
-                        int num_finished = tasks_finished.incrementAndGet();
-                        System.out.println("Done task " + task + " (Write). I am finisher number " + num_finished);
-                        success = true;
-                    }
-                } catch (SQLException e) {
-                    System.err.println("Task " + task + " encountered an error: " + e.getMessage());
-                    retries++;
-                    deadlock_counter.incrementAndGet();
-                    max_retry_counter.set(Math.max(max_retry_counter.get(), retries));
-                    System.out.println("Task " + task + " - Rollback and try again. #Retries: " + retries);
-                    executeSQL("ROLLBACK", con);
-                    try {
-                        int randomized = rand.nextInt(nThreads * 1000);
-                        Thread.sleep(100 + randomized);
-                        System.out.println("Task: " + task + " Randomized back-off time: " + randomized + "ms");
-                    } catch (InterruptedException ex) {
-                        Thread.currentThread().interrupt();
                     }
-                }
-            } while (!success);
+                } while (!success);
 
-            try {
-                if (con != null && !con.isClosed()) {
-                    con.close();
-                    System.out.println("Connection closed for task " + task);
+                if (success) {
+                    BackoffPolicy.success();
+                }
+                // Given-up transactions too: their attempts held locks the others waited for
+                TraceRecorder.record(task, type, start_nanos, TraceRecorder.now(), retries, success, data_ids, start_range, stop_range, values);
+            } finally {
+                // Always hand back the connection and the stripes, or later tasks on them hang
+                ConnectionFactory.releaseConnection(con);
+                if (held_keys != null) {
+                    key_lock_table.unlock(held_keys);
                 }
-            } catch (SQLException e) {
-                e.printStackTrace();
             }
         }
     }
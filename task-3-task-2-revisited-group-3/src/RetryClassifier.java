@@ -0,0 +1,161 @@
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientConnectionException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sorts the SQLExceptions of a transaction by SQLState and decides what the driver does
+ * next. Only the first three classes are real transaction conflicts:
+ *
+ * <pre>
+ * deadlock              40P01  retry
+ * serialization         40001  retry
+ * lock-not-available    55P03  retry      (NOWAIT / lock_timeout)
+ * canceled              57014  retry      (statement_timeout or cancel request)
+ * connection            08xxx, 57P01-57P03 and the JDBC connection exceptions  reconnect
+ * fatal                 everything else, e.g. 42601 syntax error or no SQLState  fail-fast
+ * </pre>
+ *
+ * retry rolls back and runs the transaction again after the back-off, reconnect does the
+ * same on a fresh connection, fail-fast gives the task up. Policies can be changed per
+ * class with setPolicy(). A task gives up after max_attempts attempts whatever the class,
+ * so no worker can spin forever.
+ */
+public class RetryClassifier {
+    // Error classes
+    public static final String DEADLOCK = "deadlock";
+    public static final String SERIALIZATION = "serialization";
+    public static final String LOCK_NOT_AVAILABLE = "lock-not-available";
+    public static final String CANCELED = "canceled";
+    public static final String CONNECTION = "connection";
+    public static final String FATAL = "fatal";
+
+    // Policies
+    public static final String RETRY = "retry";
+    public static final String RECONNECT = "reconnect";
+    public static final String FAIL_FAST = "fail-fast";
+
+    public static int max_attempts = 1000; // per task, over all classes
+
+    private static final Map<String, String> policies = new LinkedHashMap<>();
+
+    static {
+        policies.put(DEADLOCK, RETRY);
+        policies.put(SERIALIZATION, RETRY);
+        policies.put(LOCK_NOT_AVAILABLE, RETRY);
+        policies.put(CANCELED, RETRY);
+        policies.put(CONNECTION, RECONNECT);
+        policies.put(FATAL, FAIL_FAST);
+    }
+
+    private final Map<String, AtomicLong> counters = new LinkedHashMap<>();
+    private final AtomicLong failed_tasks = new AtomicLong(0);
+
+    public RetryClassifier() {
+        for (String error_class : policies.keySet()) {
+            counters.put(error_class, new AtomicLong(0));
+        }
+    }
+
+    public static String classify(SQLException e) {
+        if (e instanceof SQLRecoverableException || e instanceof SQLTransientConnectionException
+                || e instanceof SQLNonTransientConnectionException) {
+            return CONNECTION;
+        }
+        String state = e.getSQLState();
+        if (state == null) {
+            return FATAL; // nothing says a retry could help
+        }
+        switch (state) {
+            case "40P01":
+                return DEADLOCK;
+            case "40001":
+                return SERIALIZATION;
+            case "55P03":
+                return LOCK_NOT_AVAILABLE;
+            case "57014":
+                return CANCELED;
+            case "57P01": // admin_shutdown
+            case "57P02": // crash_shutdown
+            case "57P03": // cannot_connect_now
+                return CONNECTION;
+            default:
+                return state.startsWith("08") ? CONNECTION : FATAL;
+        }
+    }
+
+    /**
+     * Classifies e, counts it and returns its class.
+     */
+    public String record(SQLException e) {
+        String error_class = classify(e);
+        counters.get(error_class).incrementAndGet();
+        return error_class;
+    }
+
+    /**
+     * True for the classes caused by concurrent transactions, which a concurrency limiter
+     * should react to.
+     */
+    public static boolean isConflict(String error_class) {
+        return DEADLOCK.equals(error_class) || SERIALIZATION.equals(error_class) || LOCK_NOT_AVAILABLE.equals(error_class);
+    }
+
+    public static String policy(String error_class) {
+        synchronized (policies) {
+            return policies.get(error_class);
+        }
+    }
+
+    /**
+     * The policy to apply after the given number of failed attempts; FAIL_FAST once a
+     * task has used up max_attempts.
+     */
+    public static String policy(String error_class, int attempts) {
+        return attempts >= max_attempts ? FAIL_FAST : policy(error_class);
+    }
+
+    public static void setPolicy(String error_class, String policy) {
+        if (!RETRY.equals(policy) && !RECONNECT.equals(policy) && !FAIL_FAST.equals(policy)) {
+            throw new IllegalArgumentException("Unknown retry policy: " + policy);
+        }
+        synchronized (policies) {
+            if (!policies.containsKey(error_class)) {
+                throw new IllegalArgumentException("Unknown error class: " + error_class);
+            }
+            policies.put(error_class, policy);
+        }
+    }
+
+    public long getCount(String error_class) {
+        return counters.get(error_class).get();
+    }
+
+    public void taskFailed() {
+        failed_tasks.incrementAndGet();
+    }
+
+    public long getFailedTasks() {
+        return failed_tasks.get();
+    }
+
+    public void reset() {
+        for (AtomicLong counter : counters.values()) {
+            counter.set(0);
+        }
+        failed_tasks.set(0);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Errors by class:");
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            sb.append(' ').append(entry.getKey()).append(' ').append(entry.getValue().get())
+                    .append(" (").append(policy(entry.getKey())).append(')');
+        }
+        return sb.append(", tasks given up: ").append(failed_tasks.get()).toString();
+    }
+}
@@ -0,0 +1,110 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latencies of the tasks of one run plus its wall-clock time. Latency is measured from
+ * the moment a task was supposed to start (its arrival time) until it finished, so time
+ * spent waiting for a worker is included.
+ *
+ * Latencies go into a log-linear histogram of microseconds (32 sub-buckets per power of
+ * two, about 3% resolution), so memory stays constant for runs with millions of tasks.
+ */
+public class RunStats {
+    static final int LINEAR_LIMIT = 64; // values below this many microseconds get their own bucket
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int NUM_BUCKETS = LINEAR_LIMIT + (64 - 6) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong count = new AtomicLong(0);
+    private final AtomicLong sum_micros = new AtomicLong(0);
+    private final AtomicLong max_micros = new AtomicLong(0);
+    long elapsed_nanos;
+    int peak_threads; // peak live platform threads during the run, 0 if unknown
+
+    public RunStats() {
+    }
+
+    public void record(long latency_nanos) {
+        long micros = Math.max(0, latency_nanos / 1000);
+        buckets.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+        sum_micros.addAndGet(micros);
+        max_micros.accumulateAndGet(micros, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getElapsedMillis() {
+        return elapsed_nanos / 1e6;
+    }
+
+    public double getThroughput() {
+        return elapsed_nanos == 0 ? 0 : getCount() / (elapsed_nanos / 1e9);
+    }
+
+    /**
+     * Latency percentile in ms, q in [0, 1].
+     */
+    public double percentileMillis(double q) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * n));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max_micros.get()) / 1e3;
+            }
+        }
+        return max_micros.get() / 1e3;
+    }
+
+    public double meanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum_micros.get() / n / 1e3;
+    }
+
+    public double maxMillis() {
+        return max_micros.get() / 1e3;
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < LINEAR_LIMIT) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros); // >= 6
+        int sub = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - 6) * SUB_BUCKETS + sub;
+    }
+
+    // Largest value in microseconds that falls into bucket i
+    static long upperBound(int i) {
+        if (i < LINEAR_LIMIT) {
+            return i;
+        }
+        int exponent = (i - LINEAR_LIMIT) / SUB_BUCKETS + 6;
+        int sub = (i - LINEAR_LIMIT) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (sub + 1) * width - 1;
+    }
+
+    @Override
+    public String toString() {
+        String p50 = "-", p95 = "-", p99 = "-", max = "-";
+        if (getCount() > 0) {
+            p50 = String.format("%.1f", percentileMillis(0.50));
+            p95 = String.format("%.1f", percentileMillis(0.95));
+            p99 = String.format("%.1f", percentileMillis(0.99));
+            max = String.format("%.1f", maxMillis());
+        }
+        return getCount() + " tasks in " + String.format("%.0f", getElapsedMillis()) + " ms, "
+                + String.format("%.1f", getThroughput()) + " tasks/s, latency ms: mean "
+                + String.format("%.1f", meanMillis()) + ", p50 " + p50 + ", p95 " + p95 + ", p99 " + p99 + ", max " + max
+                + (peak_threads > 0 ? ", peak platform threads " + peak_threads : "");
+    }
+}
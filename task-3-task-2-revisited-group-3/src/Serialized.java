@@ -1,25 +1,31 @@
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 public class Serialized {
 
     public static int num_tasks = 30;
     public static int num_queries_per_task = 3;
+    public static String connection_mode = "per-task"; // "per-task" (baseline) or "pooled"
+    public static String write_mode = BlockingQueries.PER_KEY; // PER_KEY (baseline) runs one UPDATE per range; BlockingQueries.ORDERED locks the rows matching the ranges in data_id order first, which makes deadlocks rarer but does not rule them out
+    public static double range_selectivity = 0; // share of the data_value domain per range, e.g. 0.0001, 0.01, 0.1; 0 for random widths
+    public static boolean value_index = false; // index data_value so narrow ranges do not scan the whole table
 
-    Random rand = new Random(123456);
+    long seed = 123456;
+    Random rand = new Random(seed); // table data only, tasks use their own TaskRandom stream
     int num_tuple = 50000;
     double max_value = 50.0f;
     AtomicInteger tasks_finished;
+    AtomicLong rows_updated;
 
     public Serialized() {
         tasks_finished = new AtomicInteger(0);
+        rows_updated = new AtomicLong(0);
     }
 
     void executeSQL(String sql, Connection con){
@@ -35,33 +41,16 @@ public class Serialized {
     }
 
     void createDB(){
-        try {
-            Connection con = ConnectionFactory.getDefaultParameterConnection(ConnectionFactory.POSTGRESQL);
-            executeSQL("DROP TABLE IF EXISTS blocking_data;",con);
-            executeSQL("CREATE TABLE blocking_data ( data_id integer primary key, data_value float, modified_by integer);",con);
-
-            PreparedStatement ps;
-            con.setAutoCommit(false);
-            ps = con.prepareStatement("INSERT INTO blocking_data VALUES (?, ?, ?)",ResultSet.TYPE_SCROLL_SENSITIVE, ResultSet.CONCUR_UPDATABLE);
-
-            for(int i=0;i<num_tuple;i++){
-                ps.setInt(1, i);
-                ps.setDouble(2,rand.nextDouble()*max_value);
-                ps.setInt(3, 0);
-                ps.addBatch();
-                ps.clearParameters();
-            }
-
-            int[] results = ps.executeBatch();
-            con.commit();
-            con.close();
-            System.out.println("Inserted " + Arrays.stream(results).sum() + " records.");
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        DataLoader.value_index = value_index;
+        DataLoader.createDB(num_tuple, max_value, seed, rand);
     }
 
     public static void main(String[] args){
+        if (args.length > 0) {
+            connection_mode = args[0];
+        }
+        ConnectionFactory.setPooled(connection_mode.equals("pooled"), ConnectionFactory.POSTGRESQL);
+
         // Create DB
         Serialized b = new Serialized();
         b.createDB();
@@ -81,6 +70,16 @@ public class Serialized {
         stop = System.currentTimeMillis();
         System.out.println("[DONE] Task execution after roughly "+(stop-start)+" ms finished: "+b.tasks_finished+" of "+num_tasks);
         System.out.println("Number of queries per task: "+num_queries_per_task);
+        System.out.println("Range selectivity: "+(range_selectivity > 0 ? range_selectivity*100+"%" : "random")
+                +", data_value index: "+(value_index ? "yes" : "no")
+                +", rows updated (locked) per range: "+String.format("%.1f", (double) b.rows_updated.get()/(num_tasks*num_queries_per_task)));
+        System.out.println("Connection mode: "+connection_mode);
+        System.out.println("Write mode: "+write_mode);
+        System.out.println(StatementCache.stats());
+        if (ConnectionFactory.isPooled()) {
+            System.out.println(ConnectionFactory.getPool());
+            ConnectionFactory.setPooled(false, ConnectionFactory.POSTGRESQL);
+        }
     }
 
     /**
@@ -90,37 +89,29 @@ public class Serialized {
         final int task;
         final double [] start_range;
         final double [] stop_range;
+        final SplittableRandom task_rand; // this task's own stream, see TaskRandom
 
         public Blocker(int id){
             this.task = id;
+            this.task_rand = TaskRandom.forTask(seed, id);
             this.start_range = new double[num_queries_per_task];
             this.stop_range  = new double[num_queries_per_task];
-            for(int q=0; q<num_queries_per_task; q++) {
-                stop_range[q]  = rand.nextDouble()*max_value;
-                start_range[q] = rand.nextDouble()*stop_range[q];
-            }
+            WorkloadSpec.drawRanges(task_rand, max_value, range_selectivity, start_range, stop_range);
         }
 
         @Override
         public void run() {
             Connection con = null;
             try {
-                con = ConnectionFactory.getDefaultParameterConnection(ConnectionFactory.POSTGRESQL);
+                con = ConnectionFactory.getConnection(ConnectionFactory.POSTGRESQL);
                 con.setAutoCommit(false);
                 con.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
 
-                PreparedStatement ps = con.prepareStatement(
-                        "UPDATE blocking_data SET data_value = ?, modified_by = ? WHERE data_value >= ? AND data_value <= ?;",
-                        ResultSet.TYPE_SCROLL_SENSITIVE, ResultSet.CONCUR_UPDATABLE
-                );
-
+                double[] values = new double[num_queries_per_task];
                 for(int q=0; q<num_queries_per_task; q++) {
-                    ps.setDouble(1, rand.nextDouble()*max_value);
-                    ps.setInt(2, task);
-                    ps.setDouble(3, start_range[q]);
-                    ps.setDouble(4, stop_range[q]);
-                    ps.execute();
+                    values[q] = task_rand.nextDouble()*max_value;
                 }
+                rows_updated.addAndGet(BlockingQueries.updateRanges(con, start_range, stop_range, values, task, write_mode));
                 con.commit();
                 int num_finished = tasks_finished.incrementAndGet();
                 System.out.println("Done task "+task+". I am finisher number "+num_finished);
@@ -128,14 +119,7 @@ public class Serialized {
                 System.err.println("Task "+task+" encountered an error: "+e.getMessage());
                 e.printStackTrace();
             } finally {
-                try {
-                    if (con != null && !con.isClosed()){
-                        con.close();
-                        System.out.println("Connection closed for task "+task);
-                    }
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
+                ConnectionFactory.releaseConnection(con);
             }
         }
     }
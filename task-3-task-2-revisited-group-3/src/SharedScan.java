@@ -0,0 +1,140 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent full-table SUM scans. At most one scan runs at a time; scan
+ * requests that arrive while it runs are collected into the next scan, which starts as
+ * soon as the running one finishes and whose result all of them get. The database then
+ * does at most one scan at a time no matter how many scan tasks are in flight.
+ *
+ * Joining the next scan rather than the running one keeps READ COMMITTED intact: the
+ * scan's snapshot is taken after every request in its group arrived, so each requester
+ * sees everything committed before it asked. With join_running, requests also attach to
+ * a scan that is already running and may miss commits made since it started, which
+ * saves the wait for callers that accept that.
+ *
+ * The scan runs on the connection of the request that leads the group, inside that
+ * task's transaction; the others only wait for the result.
+ */
+public class SharedScan {
+    public static boolean enabled = false;
+    public static boolean join_running = false;
+
+    private static final SharedScan SUM = new SharedScan();
+
+    private CompletableFuture<Double> running; // guarded by this
+    private CompletableFuture<Double> next; // guarded by this
+    private final AtomicLong requests = new AtomicLong(0);
+    private final AtomicLong scans = new AtomicLong(0);
+
+    /**
+     * SELECT SUM(data_value) over blocking_data, shared with concurrent callers if enabled.
+     * Does not commit.
+     */
+    public static double scanSum(Connection con) throws SQLException {
+        if (!enabled) {
+            return BlockingQueries.scanSum(con);
+        }
+        return SUM.sum(con);
+    }
+
+    double sum(Connection con) throws SQLException {
+        CompletableFuture<Double> mine;
+        CompletableFuture<Double> wait_for = null;
+        boolean leader;
+        requests.incrementAndGet();
+        synchronized (this) {
+            if (running == null) {
+                running = mine = new CompletableFuture<>();
+                leader = true;
+            } else if (join_running) {
+                mine = running;
+                leader = false;
+            } else if (next == null) {
+                next = mine = new CompletableFuture<>();
+                wait_for = running;
+                leader = true;
+            } else {
+                mine = next;
+                leader = false;
+            }
+        }
+
+        if (!leader) {
+            return await(mine, "Shared scan");
+        }
+        if (wait_for != null) {
+            // The running scan promotes this group to running when it finishes
+            try {
+                await(wait_for, "Shared scan");
+            } catch (SQLException e) {
+                // its failure is not ours, scan anyway
+            }
+        }
+        double sum = 0;
+        SQLException failure = null;
+        try {
+            sum = BlockingQueries.scanSum(con);
+        } catch (SQLException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            failure = new SQLException("Shared scan failed: " + e, e); // the followers must be woken up either way
+        } finally {
+            scans.incrementAndGet();
+            // Promote the waiting group before it is woken up, so it finds itself running
+            synchronized (this) {
+                running = next;
+                next = null;
+            }
+        }
+        if (failure != null) {
+            mine.completeExceptionally(failure);
+            throw failure;
+        }
+        mine.complete(sum);
+        return sum;
+    }
+
+    /**
+     * Waits for a result another task computes and completes in any case, also when this
+     * thread is interrupted. A failure is rethrown with the computing task's SQLState, so
+     * the waiter's retry decision is the same as the computing task's. Shared with
+     * SingleFlight.
+     */
+    static double await(CompletableFuture<Double> result, String what) throws SQLException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return result.get();
+                } catch (InterruptedException e) {
+                    interrupted = true; // the computing task completes the future in any case
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            String state = cause instanceof SQLException ? ((SQLException) cause).getSQLState() : null;
+            throw new SQLException(what + " failed: " + cause.getMessage(), state, cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static void resetCounters() {
+        SUM.requests.set(0);
+        SUM.scans.set(0);
+    }
+
+    public static String stats() {
+        long r = SUM.requests.get();
+        long s = SUM.scans.get();
+        return "Shared scans: " + (enabled ? "on" + (join_running ? " (joining running scans)" : "") : "off")
+                + ", " + r + " scan requests served by " + s + " executed scans"
+                + (s > 0 ? String.format(" (%.2f requests per scan)", (double) r / s) : "");
+    }
+}
@@ -0,0 +1,109 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-flight deduplication for the point reads. A key that another task is already
+ * reading is not queried again: the task waits for that outstanding query and takes its
+ * value. Keys nobody is reading are fetched by the task itself, all in one query in
+ * BATCHED mode. Under skew many concurrent reads hit the same hot keys, so this saves
+ * round trips and rows read.
+ *
+ * A task first fetches and publishes all keys it owns and only then waits for the keys
+ * it joined, so no two tasks wait for each other. Under READ COMMITTED a shared value is
+ * as fresh as the query that read it, which started at most one query earlier than the
+ * joining read; a write committed in between is not seen by the joiner, as if its read
+ * had been scheduled a moment earlier.
+ */
+public class SingleFlight {
+    public static boolean enabled = false;
+
+    private static final ConcurrentHashMap<Integer, CompletableFuture<Double>> in_flight = new ConcurrentHashMap<>();
+    private static final AtomicLong lookups = new AtomicLong(0); // keys asked for
+    private static final AtomicLong fetched = new AtomicLong(0); // keys actually read from the database
+    private static final AtomicLong reads = new AtomicLong(0); // readPoints calls
+    private static final AtomicLong queries = new AtomicLong(0); // round trips actually made
+    private static final AtomicLong queries_without = new AtomicLong(0); // round trips the same reads make without single-flight
+
+    /**
+     * Same as BlockingQueries.readPoints: the sum of data_value over data_ids. Does not commit.
+     */
+    public static double readPoints(Connection con, int[] data_ids, String read_mode) throws SQLException {
+        if (!enabled) {
+            return BlockingQueries.readPoints(con, data_ids, read_mode);
+        }
+        reads.incrementAndGet();
+        lookups.addAndGet(data_ids.length);
+        queries_without.addAndGet(BlockingQueries.PER_KEY.equals(read_mode) ? data_ids.length : 1);
+
+        // Claim every key nobody is reading yet, join the others
+        int[] owned = new int[data_ids.length];
+        CompletableFuture<Double>[] owned_futures = newFutures(data_ids.length);
+        CompletableFuture<Double>[] joined = newFutures(data_ids.length);
+        int num_owned = 0;
+        int num_joined = 0;
+        for (int data_id : data_ids) {
+            CompletableFuture<Double> mine = new CompletableFuture<>();
+            CompletableFuture<Double> other = in_flight.putIfAbsent(data_id, mine);
+            if (other == null) {
+                owned[num_owned] = data_id;
+                owned_futures[num_owned++] = mine;
+            } else {
+                joined[num_joined++] = other;
+            }
+        }
+
+        double sum = 0;
+        if (num_owned > 0) {
+            int[] keys = Arrays.copyOf(owned, num_owned);
+            double[] values = new double[num_owned];
+            try {
+                BlockingQueries.readValues(con, keys, values, read_mode);
+            } catch (SQLException | RuntimeException e) {
+                for (int i = 0; i < num_owned; i++) {
+                    in_flight.remove(keys[i], owned_futures[i]);
+                    owned_futures[i].completeExceptionally(e);
+                }
+                throw e;
+            }
+            fetched.addAndGet(num_owned);
+            queries.addAndGet(BlockingQueries.PER_KEY.equals(read_mode) ? num_owned : 1);
+            for (int i = 0; i < num_owned; i++) {
+                // Unpublish first: a read arriving after this point must query again
+                in_flight.remove(keys[i], owned_futures[i]);
+                owned_futures[i].complete(values[i]);
+                sum += values[i];
+            }
+        }
+        for (int i = 0; i < num_joined; i++) {
+            sum += SharedScan.await(joined[i], "Shared point read");
+        }
+        return sum;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static CompletableFuture<Double>[] newFutures(int length) {
+        return new CompletableFuture[length];
+    }
+
+    public static void resetCounters() {
+        lookups.set(0);
+        fetched.set(0);
+        reads.set(0);
+        queries.set(0);
+        queries_without.set(0);
+    }
+
+    public static String stats() {
+        long l = lookups.get();
+        long f = fetched.get();
+        long q = queries.get();
+        long w = queries_without.get();
+        return "Single-flight reads: " + (enabled ? "on" : "off") + ", " + l + " key lookups, " + f + " fetched"
+                + (f > 0 ? String.format(" (dedup ratio %.2f)", (double) l / f) : "")
+                + ", " + q + " round trips instead of " + w + " in " + reads.get() + " reads";
+    }
+}
@@ -0,0 +1,75 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prepared statements of one connection, keyed by their SQL text. A connection is only
+ * used by one task at a time, so the cache itself needs no locking; only the global
+ * hit/miss counters are shared between threads.
+ */
+public class StatementCache {
+    static final AtomicLong hits = new AtomicLong(0);
+    static final AtomicLong misses = new AtomicLong(0);
+
+    private final Connection con;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    public StatementCache(Connection con) {
+        this.con = con;
+    }
+
+    /**
+     * Returns the cached statement for this SQL text or prepares it on first use.
+     * Callers must not close the returned statement, it is closed together with the connection.
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+        if (ps != null && !ps.isClosed()) {
+            hits.incrementAndGet();
+            ps.clearParameters();
+            return ps;
+        }
+        misses.incrementAndGet();
+        ps = con.prepareStatement(sql);
+        statements.put(sql, ps);
+        return ps;
+    }
+
+    public void close() {
+        for (PreparedStatement ps : statements.values()) {
+            try {
+                ps.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+        statements.clear();
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    public static String stats() {
+        long h = hits.get();
+        long m = misses.get();
+        double ratio = (h + m) == 0 ? 0.0 : (double) h / (h + m);
+        return "Statement cache: " + h + " hits, " + m + " misses (hit ratio " + String.format("%.3f", ratio) + ")";
+    }
+}
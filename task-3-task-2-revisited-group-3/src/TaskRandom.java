@@ -0,0 +1,24 @@
+import java.util.SplittableRandom;
+
+/**
+ * Per-task random streams. Every Blocker draws its type, keys, written values and
+ * back-off times from its own stream derived from (seed, task id), so a run is
+ * reproducible no matter how many threads execute it or in which order tasks are
+ * created, and worker threads never contend on a shared Random.
+ */
+public class TaskRandom {
+
+    /**
+     * Returns the stream of one task. Equal (seed, task) pairs always give equal streams.
+     */
+    public static SplittableRandom forTask(long seed, int task) {
+        return new SplittableRandom(mix64(seed ^ mix64(task + 0x9E3779B97F4A7C15L)));
+    }
+
+    // SplitMix64 finalizer, spreads neighbouring task ids over the whole seed space
+    static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,255 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Executes the tasks of a driver and measures them. Tasks are pulled one at a time from an
+ * iterator, usually a TaskSource, so they never all exist at once. In closed mode a task is
+ * handed to the worker pool as soon as fewer than nThreads * queue_per_thread tasks are
+ * queued or running, which keeps the workers busy like the old submit-everything loop but
+ * keeps the executor queue bounded. In open-loop mode tasks are released
+ * at arrival_rate per second, evenly spaced (constant) or with exponential gaps (poisson),
+ * and latency is measured from each task's intended arrival time, so a backlog shows up
+ * in the latencies instead of silently slowing down the arrivals.
+ *
+ * The executor is a fixed pool of nThreads platform threads, or in virtual mode one
+ * virtual thread per task with nThreads tasks in flight. A task blocked on a row lock or
+ * sleeping in its back-off then only parks its virtual thread instead of occupying a
+ * worker. session_limit bounds how many tasks hold a database session at the same time,
+ * independently of the in-flight count. Virtual threads need Java 21; on older runtimes
+ * virtual mode falls back to one platform thread per task. In lanes mode tasks are
+ * partitioned by their data_ids over nThreads single-thread lanes, see LaneExecutor. In
+ * classes mode point reads, scans and writes get separate pools, see ClassPoolExecutor.
+ *
+ * With adaptive_limit a ConcurrencyLimiter decides how many tasks run at once, between
+ * its min_limit and max_limit, from commit latency and the conflicts drivers report.
+ */
+public class TaskRunner {
+    public static final String CLOSED = "closed";
+    public static final String CONSTANT = "constant";
+    public static final String POISSON = "poisson";
+
+    public static String arrival_mode = CLOSED;
+    public static double arrival_rate = 100.0; // tasks per second in open-loop mode
+    public static double[] rate_sweep = {}; // if not empty, main() runs the workload once per rate
+    public static int queue_per_thread = 4; // closed mode: tasks submitted ahead per worker thread
+
+    public static final String FIXED = "fixed"; // nThreads platform worker threads
+    public static final String VIRTUAL = "virtual"; // a virtual thread per task, nThreads in flight
+    public static final String LANES = "lanes"; // nThreads partitioned single-thread lanes, see LaneExecutor
+    public static final String CLASSES = "classes"; // a pool per transaction class, see ClassPoolExecutor
+
+    public static String executor_mode = FIXED;
+    public static int session_limit = 0; // max tasks holding a database session at once, 0 for no limit
+    public static int[] concurrency_sweep = {}; // if not empty, main() compares both executors at these in-flight counts
+    public static boolean adaptive_limit = false; // let a ConcurrencyLimiter adjust the in-flight count, starting at nThreads
+
+    private static volatile boolean virtual_fallback_reported = false;
+
+    final int nThreads;
+    final long seed;
+    final String executor;
+
+    public TaskRunner(int nThreads, long seed) {
+        this(nThreads, seed, executor_mode);
+    }
+
+    public TaskRunner(int nThreads, long seed, String executor) {
+        if (!FIXED.equals(executor) && !VIRTUAL.equals(executor) && !LANES.equals(executor) && !CLASSES.equals(executor)) {
+            throw new IllegalArgumentException("Unknown executor mode: " + executor);
+        }
+        this.nThreads = nThreads;
+        this.seed = seed;
+        this.executor = executor;
+    }
+
+    public RunStats run(Iterator<? extends Runnable> tasks) {
+        return run(tasks, arrival_mode, arrival_rate);
+    }
+
+    public RunStats run(Iterator<? extends Runnable> tasks, String mode, double rate) {
+        boolean open_loop = !CLOSED.equals(mode);
+        if (open_loop && !CONSTANT.equals(mode) && !POISSON.equals(mode)) {
+            throw new IllegalArgumentException("Unknown arrival mode: " + mode);
+        }
+        if (open_loop && !(rate > 0)) {
+            throw new IllegalArgumentException("Arrival rate must be positive: " + rate);
+        }
+
+        RunStats stats = new RunStats();
+        boolean virtual = VIRTUAL.equals(this.executor);
+        // With the adaptive limit nThreads is only the starting point, the limiter gates the workers
+        ConcurrencyLimiter limiter = adaptive_limit ? new ConcurrencyLimiter(nThreads) : null;
+        int workers = limiter != null ? Math.max(nThreads, ConcurrencyLimiter.max_limit) : nThreads;
+        ClassPoolExecutor classes = CLASSES.equals(this.executor) ? new ClassPoolExecutor(queue_per_thread) : null;
+        if (classes != null) {
+            workers = ClassPoolExecutor.totalThreads(); // the class pools bring their own thread counts
+        }
+        ConcurrencyLimiter.setActive(limiter);
+        LaneExecutor lanes = LANES.equals(this.executor) ? new LaneExecutor(workers) : null;
+        ExecutorService executor = lanes != null ? lanes : classes != null ? classes
+                : virtual ? newVirtualExecutor() : Executors.newFixedThreadPool(workers);
+        // Virtual threads have no queue to fill: every submitted task is running or parked
+        Semaphore in_flight = new Semaphore(virtual ? workers : workers * Math.max(1, queue_per_thread));
+        Semaphore sessions = session_limit > 0 ? new Semaphore(session_limit) : null;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        SplittableRandom arrivals = new SplittableRandom(seed); // same schedule for every run with this seed
+        double mean_gap_nanos = open_loop ? 1e9 / rate : 0;
+
+        long start = System.nanoTime();
+        double next_arrival = start;
+        while (tasks.hasNext()) {
+            Runnable task = tasks.next();
+            long intended_start;
+            if (!open_loop) {
+                // Closed loop: wait for room instead of queueing millions of tasks in the executor
+                if (classes != null) {
+                    classes.admit(task); // room of the task's own class, see ClassPoolExecutor
+                } else {
+                    in_flight.acquireUninterruptibly();
+                }
+                intended_start = System.nanoTime(); // latency counts from admission, not from the start of the run
+            } else {
+                next_arrival += POISSON.equals(mode) ? -Math.log(1.0 - arrivals.nextDouble()) * mean_gap_nanos : mean_gap_nanos;
+                intended_start = (long) next_arrival;
+                sleepUntil(intended_start);
+            }
+            long arrival = intended_start;
+            Runnable body = () -> {
+                try {
+                    if (limiter != null) {
+                        limiter.acquire();
+                    }
+                    if (sessions != null) {
+                        sessions.acquireUninterruptibly();
+                    }
+                    long started = System.nanoTime();
+                    ConcurrencyLimiter.takePaused(); // left over from an earlier task on this thread
+                    try {
+                        task.run();
+                    } finally {
+                        if (sessions != null) {
+                            sessions.release();
+                        }
+                        if (limiter != null) {
+                            limiter.release(System.nanoTime() - started - ConcurrencyLimiter.takePaused()); // without back-off sleeps
+                        }
+                    }
+                    stats.record(System.nanoTime() - arrival);
+                } finally {
+                    if (!open_loop) {
+                        if (classes != null) {
+                            classes.release(task);
+                        } else {
+                            in_flight.release();
+                        }
+                    }
+                }
+            };
+            if (lanes != null) {
+                lanes.execute(task, body); // placed by the task's keys, not the wrapper's
+            } else if (classes != null) {
+                classes.execute(task, body);
+            } else {
+                executor.execute(body);
+            }
+        }
+        executor.shutdown();
+
+        // Wait for the tasks to finish; awaitTermination returns as soon as the last one is done
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        stats.elapsed_nanos = System.nanoTime() - start;
+        stats.peak_threads = threads.getPeakThreadCount(); // platform threads only, so carriers but not virtual threads
+        if (limiter != null) {
+            ConcurrencyLimiter.setActive(null);
+            System.out.println(limiter);
+        }
+        if (lanes != null) {
+            System.out.println(lanes);
+        }
+        if (classes != null) {
+            System.out.println(classes);
+        }
+        return stats;
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() if the runtime has it (Java 21+), looked
+     * up reflectively so the code still compiles and runs on Java 17. Otherwise a cached pool,
+     * which also starts a thread per task, just a platform one.
+     */
+    static ExecutorService newVirtualExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            if (!virtual_fallback_reported) {
+                virtual_fallback_reported = true;
+                System.out.println("Virtual threads need Java 21 (running " + System.getProperty("java.version")
+                        + "), using a platform thread per task instead");
+            }
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Runs the workload on the fixed pool and on virtual threads, for every in-flight count
+     * in concurrency_sweep, and prints throughput, latency and peak platform thread count of
+     * each run. prepare and details work as in sweep().
+     */
+    public void compareExecutors(Supplier<? extends Iterator<? extends Runnable>> prepare, Supplier<String> details) {
+        StringBuilder summary = new StringBuilder("[EXECUTORS] " + arrival_mode + " arrivals, session limit "
+                + (session_limit > 0 ? session_limit : "none") + "\n");
+        for (int in_flight : concurrency_sweep) {
+            for (String mode : new String[]{FIXED, VIRTUAL}) {
+                Iterator<? extends Runnable> tasks = prepare.get();
+                RunStats stats = new TaskRunner(in_flight, seed, mode).run(tasks);
+                String line = mode + ", " + in_flight + " in flight: " + stats + ", " + details.get();
+                System.out.println("[EXECUTORS] " + line);
+                summary.append("  ").append(line).append('\n');
+            }
+        }
+        System.out.print(summary);
+    }
+
+    /**
+     * Runs the workload once per rate in rate_sweep and prints one line per rate, which
+     * gives the throughput/latency curve of a driver. prepare is called before every rate
+     * and must reset the driver and return a fresh task source; details adds driver specific
+     * numbers (deadlocks, retries) to each line.
+     */
+    public void sweep(Supplier<? extends Iterator<? extends Runnable>> prepare, Supplier<String> details) {
+        String mode = CLOSED.equals(arrival_mode) ? POISSON : arrival_mode;
+        StringBuilder summary = new StringBuilder("[SWEEP] " + mode + " arrivals, " + nThreads + " threads\n");
+        for (double rate : rate_sweep) {
+            Iterator<? extends Runnable> tasks = prepare.get();
+            RunStats stats = run(tasks, mode, rate);
+            String line = "offered " + String.format("%.1f", rate) + " tasks/s: " + stats + ", " + details.get();
+            System.out.println("[SWEEP] " + line);
+            summary.append("  ").append(line).append('\n');
+        }
+        System.out.print(summary);
+    }
+
+    static void sleepUntil(long deadline_nanos) {
+        long remaining;
+        while ((remaining = deadline_nanos - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
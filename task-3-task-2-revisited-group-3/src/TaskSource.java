@@ -0,0 +1,68 @@
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.IntFunction;
+
+/**
+ * Lazily generated tasks 0..count-1. A generator thread builds tasks ahead of execution into
+ * a bounded queue, so at most `capacity` tasks exist before they run, whether the run has
+ * 30 or 10M tasks, and task generation overlaps their execution. Because every task derives
+ * its randomness from (seed, task id), see TaskRandom, the streamed tasks are the same as
+ * if they had all been built up front.
+ */
+public class TaskSource implements Iterator<Runnable> {
+    public static int capacity = 1024; // tasks generated ahead of the executor
+
+    private static final Runnable END = () -> { };
+
+    private final BlockingQueue<Runnable> queue;
+    private final Thread generator;
+    private final int count;
+    private Runnable next;
+
+    public TaskSource(int count, IntFunction<? extends Runnable> factory) {
+        this.count = count;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.generator = new Thread(() -> {
+            try {
+                for (int task = 0; task < count; task++) {
+                    queue.put(factory.apply(task));
+                }
+                queue.put(END);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "task-generator");
+        generator.setDaemon(true);
+        generator.start();
+    }
+
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                generator.interrupt();
+                return false;
+            }
+        }
+        return next != END;
+    }
+
+    @Override
+    public Runnable next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Runnable task = next;
+        next = null;
+        return task;
+    }
+}
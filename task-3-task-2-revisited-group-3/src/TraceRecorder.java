@@ -0,0 +1,149 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Records every transaction of a run to a trace file that TraceReplayer can re-issue
+ * later, the committed ones and the ones that gave up. Enabled with -Dtrace=<file>; when
+ * the property is not set record() does nothing. One tab separated line per transaction:
+ *
+ * <pre>
+ * task  type  kind  start_us  end_us  retries  outcome  data_ids  start_range  stop_range  values
+ * </pre>
+ *
+ * Timestamps are microseconds since the recorder was opened, the start is the first
+ * attempt and the end the commit, or the rollback of the last attempt for a transaction
+ * that gave up. outcome is COMMITTED or GAVE_UP. Lists are comma separated, "-" if
+ * empty. Written values are the ones of the last attempt.
+ *
+ * The header keeps everything the replayer needs to rebuild the same table and to run
+ * the transactions the same way: seed, num_tuple, max_value, DataLoader.load_mode and
+ * generator, read_mode, write_mode, connection_mode, and the BackoffPolicy mode, base
+ * and cap.
+ */
+public class TraceRecorder {
+    public static final String TRACE_PROPERTY = "trace";
+    static final String HEADER = "# trace";
+
+    // Outcomes
+    public static final String COMMITTED = "committed";
+    public static final String GAVE_UP = "gave-up";
+
+    private static volatile TraceRecorder active;
+
+    private final BufferedWriter out;
+    private final long base_nanos;
+    private long records = 0;
+
+    private TraceRecorder(String file, long seed, int num_tuple, double max_value, String read_mode, String write_mode,
+                          String connection_mode, String workload) throws IOException {
+        out = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8);
+        out.write(HEADER + " seed=" + seed + " num_tuple=" + num_tuple + " max_value=" + max_value
+                + " load_mode=" + DataLoader.load_mode + " generator=" + DataLoader.generator()
+                + " read_mode=" + read_mode + " write_mode=" + write_mode + " connection_mode=" + connection_mode
+                + " backoff=" + BackoffPolicy.mode + " backoff_base_ms=" + BackoffPolicy.base_ms + " backoff_cap_ms=" + BackoffPolicy.cap_ms
+                + " workload=" + workload.replace('\n', ' '));
+        out.newLine();
+        base_nanos = System.nanoTime();
+    }
+
+    /**
+     * Starts recording if -Dtrace=<file> is set. Call right before the tasks run.
+     */
+    public static synchronized void startFromSystemProperty(long seed, int num_tuple, double max_value, String read_mode, String write_mode,
+                                                            String connection_mode, String workload) {
+        String file = System.getProperty(TRACE_PROPERTY);
+        if (file == null || file.isEmpty()) {
+            return;
+        }
+        stop();
+        try {
+            active = new TraceRecorder(file, seed, num_tuple, max_value, read_mode, write_mode, connection_mode, workload);
+            System.out.println("Recording trace to " + file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static boolean isRecording() {
+        return active != null;
+    }
+
+    /**
+     * Clock of the trace, pass the result as start_nanos / commit_nanos to record().
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records one transaction; committed is false for a transaction that gave up, end_nanos
+     * then being the time of its last rollback.
+     */
+    public static void record(int task, WorkloadSpec.TxType type, long start_nanos, long end_nanos, int retries, boolean committed,
+                              int[] data_ids, double[] start_range, double[] stop_range, double[] values) {
+        TraceRecorder recorder = active;
+        if (recorder == null) {
+            return;
+        }
+        StringBuilder line = new StringBuilder(64);
+        line.append(task).append('\t').append(type.name).append('\t').append(type.kind)
+                .append('\t').append((start_nanos - recorder.base_nanos) / 1000)
+                .append('\t').append((end_nanos - recorder.base_nanos) / 1000)
+                .append('\t').append(retries)
+                .append('\t').append(committed ? COMMITTED : GAVE_UP);
+        line.append('\t');
+        if (data_ids == null || data_ids.length == 0) {
+            line.append('-');
+        } else {
+            for (int i = 0; i < data_ids.length; i++) {
+                line.append(i == 0 ? "" : ",").append(data_ids[i]);
+            }
+        }
+        appendValues(line, start_range);
+        appendValues(line, stop_range);
+        appendValues(line, values);
+        recorder.write(line.toString());
+    }
+
+    public static synchronized void stop() {
+        TraceRecorder recorder = active;
+        active = null;
+        if (recorder != null) {
+            recorder.close();
+        }
+    }
+
+    private static void appendValues(StringBuilder line, double[] values) {
+        line.append('\t');
+        if (values == null || values.length == 0) {
+            line.append('-');
+            return;
+        }
+        for (int i = 0; i < values.length; i++) {
+            // Hex floats round-trip exactly, so the replay writes bit-identical values
+            line.append(i == 0 ? "" : ",").append(Double.toHexString(values[i]));
+        }
+    }
+
+    private synchronized void write(String line) {
+        try {
+            out.write(line);
+            out.newLine();
+            records++;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized void close() {
+        try {
+            out.close();
+            System.out.println("Trace recorded: " + records + " transactions");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,381 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Re-issues a trace written by TraceRecorder against blocking_data: same transactions,
+ * same data_ids, same written values, started at their recorded offsets divided by the
+ * speed factor ("1" real time, "10" ten times faster, "max" as fast as possible in start
+ * order). The table is rebuilt from the seed in the trace header first, so a problematic
+ * run of RestartBlocking or NoLiveLocks can be reproduced while tuning the server.
+ *
+ * The settings in the header replace the replayer's own: the table is built with the
+ * recorded load_mode, the statements use the recorded read and write modes and
+ * connection mode, and retries wait for the recorded BackoffPolicy, divided by the speed
+ * factor like the start offsets. Failed attempts are handled as in the drivers, by
+ * RetryClassifier. A transaction that gave up in the recorded run is replayed with at
+ * most as many attempts as it had and is rolled back instead of committed, so the locks
+ * its attempts took are part of the replay as well.
+ *
+ * Usage: TraceReplayer <trace file> [speed]
+ */
+public class TraceReplayer {
+    public static final String MAX_SPEED = "max";
+
+    public static String speed = "1";
+    public static int nThreads = 4; // same as the drivers, so the same transactions overlap
+    public static boolean reload_table = true; // rebuild the recorded initial table before replaying
+    public static String read_mode = BlockingQueries.PER_KEY; // for traces without read_mode in the header
+    public static String write_mode = BlockingQueries.PER_KEY; // for traces without write_mode in the header
+    public static String connection_mode = "per-task"; // for traces without connection_mode in the header
+
+    long seed;
+    int num_tuple;
+    double max_value;
+    String workload = "";
+    String generator; // recorded DataLoader generator, null in older traces
+    final List<Tx> trace = new ArrayList<>();
+    AtomicInteger tasks_finished = new AtomicInteger(0);
+    AtomicInteger tasks_given_up = new AtomicInteger(0); // replayed transactions that gave up in the recorded run
+    AtomicInteger retry_counter = new AtomicInteger(0);
+    AtomicInteger conflict_counter = new AtomicInteger(0); // deadlocks and serialization failures
+    AtomicInteger max_retry_counter = new AtomicInteger(0);
+    RetryClassifier errors = new RetryClassifier();
+
+    /**
+     * One recorded transaction.
+     */
+    static class Tx {
+        int task;
+        String type;
+        String kind;
+        long start_us;
+        long end_us; // commit, or the last rollback of a transaction that gave up
+        int retries;
+        boolean committed = true;
+        int[] data_ids;
+        double[] start_range;
+        double[] stop_range;
+        double[] values;
+    }
+
+    void load(String file) throws IOException {
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(TraceRecorder.HEADER)) {
+                    parseHeader(line);
+                } else if (!line.isEmpty() && !line.startsWith("#")) {
+                    trace.add(parseTx(line));
+                }
+            }
+        }
+        if (num_tuple == 0) {
+            throw new IOException("Not a trace file, header missing: " + file);
+        }
+        trace.sort(Comparator.comparingLong(tx -> tx.start_us));
+    }
+
+    private void parseHeader(String line) {
+        int w = line.indexOf(" workload=");
+        String fields = w >= 0 ? line.substring(TraceRecorder.HEADER.length(), w) : line.substring(TraceRecorder.HEADER.length());
+        if (w >= 0) {
+            workload = line.substring(w + " workload=".length());
+        }
+        for (String field : fields.trim().split(" ")) {
+            int eq = field.indexOf('=');
+            if (eq < 0) {
+                continue;
+            }
+            String key = field.substring(0, eq);
+            String value = field.substring(eq + 1);
+            switch (key) {
+                case "seed":
+                    seed = Long.parseLong(value);
+                    break;
+                case "num_tuple":
+                    num_tuple = Integer.parseInt(value);
+                    break;
+                case "max_value":
+                    max_value = Double.parseDouble(value);
+                    break;
+                case "load_mode":
+                    DataLoader.load_mode = value;
+                    break;
+                case "generator":
+                    generator = value;
+                    break;
+                case "read_mode":
+                    read_mode = value;
+                    break;
+                case "connection_mode":
+                    connection_mode = value;
+                    break;
+                case "backoff":
+                    BackoffPolicy.mode = value;
+                    break;
+                case "backoff_base_ms":
+                    BackoffPolicy.base_ms = Long.parseLong(value);
+                    break;
+                case "backoff_cap_ms":
+                    BackoffPolicy.cap_ms = Long.parseLong(value);
+                    break;
+                case "write_mode":
+                    write_mode = value;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    static Tx parseTx(String line) {
+        String[] f = line.split("\t");
+        if (f.length == 10) {
+            // Older traces had no outcome column and held committed transactions only
+            String[] with_outcome = new String[11];
+            System.arraycopy(f, 0, with_outcome, 0, 6);
+            with_outcome[6] = TraceRecorder.COMMITTED;
+            System.arraycopy(f, 6, with_outcome, 7, 4);
+            f = with_outcome;
+        }
+        if (f.length != 11) {
+            throw new IllegalArgumentException("Malformed trace line: " + line);
+        }
+        Tx tx = new Tx();
+        tx.task = Integer.parseInt(f[0]);
+        tx.type = f[1];
+        tx.kind = f[2];
+        tx.start_us = Long.parseLong(f[3]);
+        tx.end_us = Long.parseLong(f[4]);
+        tx.retries = Integer.parseInt(f[5]);
+        if (!f[6].equals(TraceRecorder.COMMITTED) && !f[6].equals(TraceRecorder.GAVE_UP)) {
+            throw new IllegalArgumentException("Unknown outcome in trace line: " + line);
+        }
+        tx.committed = f[6].equals(TraceRecorder.COMMITTED);
+        if (!f[7].equals("-")) {
+            String[] ids = f[7].split(",");
+            tx.data_ids = new int[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                tx.data_ids[i] = Integer.parseInt(ids[i]);
+            }
+        }
+        tx.start_range = parseValues(f[8]);
+        tx.stop_range = parseValues(f[9]);
+        tx.values = parseValues(f[10]);
+        return tx;
+    }
+
+    private static double[] parseValues(String field) {
+        if (field.equals("-")) {
+            return null;
+        }
+        String[] parts = field.split(",");
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            values[i] = Double.parseDouble(parts[i]); // accepts the hex floats written by the recorder
+        }
+        return values;
+    }
+
+    /**
+     * Replays the loaded trace and returns the latency of every transaction, measured from
+     * its scheduled start.
+     */
+    RunStats replay(double factor) {
+        RunStats stats = new RunStats();
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        long first_us = trace.isEmpty() ? 0 : trace.get(0).start_us;
+
+        long start = System.nanoTime();
+        for (Tx tx : trace) {
+            long intended_start = start;
+            if (factor > 0) {
+                intended_start = start + (long) ((tx.start_us - first_us) * 1000 / factor);
+                TaskRunner.sleepUntil(intended_start);
+            }
+            long arrival = intended_start;
+            executor.execute(() -> {
+                execute(tx, factor);
+                stats.record(System.nanoTime() - arrival);
+            });
+        }
+        executor.shutdown();
+
+        while (!executor.isTerminated()) {
+            try {
+                executor.awaitTermination(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        stats.elapsed_nanos = System.nanoTime() - start;
+        return stats;
+    }
+
+    void execute(Tx tx, double factor) {
+        int retries = 0;
+        boolean success = false;
+        long backoff_ms = 0; // last back-off before scaling, see BackoffPolicy
+        SplittableRandom rand = TaskRandom.forTask(seed, tx.task); // back-off jitter only
+        Connection con = null;
+        try {
+            con = ConnectionFactory.getConnection(ConnectionFactory.POSTGRESQL);
+            try {
+                con.setAutoCommit(false);
+                con.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+
+            do {
+                try {
+                    if (tx.kind.equals(WorkloadSpec.POINT_READ)) {
+                        BlockingQueries.readPoints(con, tx.data_ids, read_mode);
+                    } else if (tx.kind.equals(WorkloadSpec.SCAN)) {
+                        BlockingQueries.scanSum(con);
+                    } else if (tx.kind.equals(WorkloadSpec.RANGE_UPDATE)) {
+                        BlockingQueries.updateRanges(con, tx.start_range, tx.stop_range, tx.values, tx.task, write_mode);
+                    } else {
+                        BlockingQueries.writePoints(con, tx.data_ids, tx.values, tx.task, write_mode);
+                    }
+                    if (!tx.committed) {
+                        // Gave up in the recorded run: it held its locks, but its writes never became visible
+                        con.rollback();
+                        tasks_given_up.incrementAndGet();
+                        break;
+                    }
+                    con.commit();
+                    tasks_finished.incrementAndGet();
+                    success = true;
+                } catch (SQLException e) {
+                    String error_class = errors.record(e);
+                    System.err.println("Replayed task " + tx.task + " encountered an error (" + error_class + ", SQLState " + e.getSQLState() + "): " + e.getMessage());
+                    try {
+                        con.rollback();
+                    } catch (SQLException ex) {
+                        ex.printStackTrace();
+                    }
+                    String policy = RetryClassifier.policy(error_class, retries + 1);
+                    if (!tx.committed && retries >= tx.retries) {
+                        // as many attempts as in the recorded run
+                        tasks_given_up.incrementAndGet();
+                        break;
+                    }
+                    if (policy.equals(RetryClassifier.FAIL_FAST)) {
+                        errors.taskFailed();
+                        System.out.println("Replayed task " + tx.task + " - Rollback and give up after " + (retries + 1) + " attempts");
+                        break;
+                    }
+                    retries++;
+                    retry_counter.incrementAndGet();
+                    if (error_class.equals(RetryClassifier.DEADLOCK) || error_class.equals(RetryClassifier.SERIALIZATION)) {
+                        conflict_counter.incrementAndGet();
+                    }
+                    max_retry_counter.set(Math.max(max_retry_counter.get(), retries));
+                    if (policy.equals(RetryClassifier.RECONNECT)) {
+                        try {
+                            con = ConnectionFactory.reconnect(con, ConnectionFactory.POSTGRESQL);
+                        } catch (SQLException | RuntimeException ex) {
+                            ex.printStackTrace(); // still holding the old connection, the next attempt reconnects again
+                        }
+                    }
+                    try {
+                        // The recorded back-off, compressed like the start offsets
+                        backoff_ms = BackoffPolicy.delayMillis(retries, backoff_ms, rand, nThreads);
+                        BackoffPolicy.sleep(factor > 0 ? (long) (backoff_ms / factor) : backoff_ms);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            } while (!success);
+        } finally {
+            ConnectionFactory.releaseConnection(con);
+        }
+    }
+
+    // Speed factor, 0 for as fast as possible
+    static double parseSpeed(String speed) {
+        if (speed.equalsIgnoreCase(MAX_SPEED)) {
+            return 0;
+        }
+        String s = speed.endsWith("x") ? speed.substring(0, speed.length() - 1) : speed;
+        double factor = Double.parseDouble(s);
+        if (!(factor > 0)) {
+            throw new IllegalArgumentException("Replay speed must be positive or \"max\": " + speed);
+        }
+        return factor;
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: TraceReplayer <trace file> [speed: 1, 10, ... or max]");
+            return;
+        }
+        if (args.length > 1) {
+            speed = args[1];
+        }
+        double factor = parseSpeed(speed);
+
+        TraceReplayer r = new TraceReplayer();
+        try {
+            r.load(args[0]);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        int recorded_retries = 0;
+        int recorded_max_retries = 0;
+        int recorded_given_up = 0;
+        for (Tx tx : r.trace) {
+            recorded_given_up += tx.committed ? 0 : 1;
+            recorded_retries += tx.retries;
+            recorded_max_retries = Math.max(recorded_max_retries, tx.retries);
+        }
+        long recorded_span_us = r.trace.isEmpty() ? 0 : r.trace.get(r.trace.size() - 1).end_us - r.trace.get(0).start_us;
+
+        ConnectionFactory.setPooled(connection_mode.equals("pooled"), ConnectionFactory.POSTGRESQL);
+        if (r.generator != null && !r.generator.equals(DataLoader.generator())) {
+            System.out.println("Warning: trace generator " + r.generator + " does not match load mode " + DataLoader.load_mode
+                    + ", the rebuilt table differs from the recorded one");
+        }
+        if (reload_table) {
+            DataLoader.createDB(r.num_tuple, r.max_value, r.seed, new Random(r.seed));
+        }
+
+        RunStats stats = r.replay(factor);
+        System.out.println("[DONE] Replayed " + r.tasks_finished + " committed and " + r.tasks_given_up + " given-up of " + r.trace.size() + " transactions at "
+                + (factor > 0 ? factor + "x" : "max") + " speed in " + stats.getElapsedMillis() + " ms");
+        System.out.println("Latency: " + stats);
+        System.out.println("Recorded: " + recorded_retries + " retries (max " + recorded_max_retries + " per task), "
+                + recorded_given_up + " given up, over " + recorded_span_us / 1000 + " ms");
+        System.out.println("Replayed: " + r.retry_counter + " retries (max " + r.max_retry_counter + " per task), "
+                + r.conflict_counter + " deadlocks and serialization failures");
+        System.out.println(r.errors);
+        System.out.println("Workload: " + r.workload);
+        System.out.println("Number of Threads: " + nThreads);
+        System.out.println("Read mode: " + read_mode);
+        System.out.println("Write mode: " + write_mode);
+        System.out.println("Load mode: " + DataLoader.load_mode);
+        System.out.println("Connection mode: " + connection_mode);
+        System.out.println(BackoffPolicy.stats());
+        if (ConnectionFactory.isPooled()) {
+            System.out.println(ConnectionFactory.getPool());
+            ConnectionFactory.setPooled(false, ConnectionFactory.POSTGRESQL);
+        }
+    }
+}
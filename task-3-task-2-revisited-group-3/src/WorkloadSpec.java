@@ -0,0 +1,302 @@
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.random.RandomGenerator;
+
+/**
+ * Transaction mix of a benchmark run: the transaction types with their weights and
+ * parameters, plus the table size. Read from a properties file so a mix can be changed
+ * without recompiling, for example:
+ *
+ * <pre>
+ * num_tasks=1000
+ * num_tuple=50000
+ * max_value=50.0
+ * types=point_read,scan,write
+ * type.point_read.kind=point_read
+ * type.point_read.weight=0.7
+ * type.point_read.queries_per_task=3
+ * type.scan.kind=scan
+ * type.scan.weight=0.1
+ * type.write.kind=write
+ * type.write.weight=0.2
+ * type.write.queries_per_task=3
+ * type.write.distribution=zipfian:0.99
+ * </pre>
+ *
+ * Weights are relative; a task with p in [0,1) gets the first type whose cumulative
+ * share exceeds p, in the order of the types list. key_distribution sets the default
+ * KeyDistribution for all types, type.&lt;name&gt;.distribution overrides it per type.
+ * range_selectivity (a fraction or a percentage like 1%) makes every range update cover
+ * that share of the data_value domain instead of a random width.
+ */
+public class WorkloadSpec {
+    // Transaction kinds a Blocker knows how to run
+    public static final String POINT_READ = "point_read"; // read queries_per_task rows by data_id and sum them
+    public static final String SCAN = "scan"; // SELECT SUM(data_value) over the whole table
+    public static final String WRITE = "write"; // update queries_per_task rows by data_id
+    public static final String RANGE_UPDATE = "range_update"; // queries_per_task updates of a random data_value range
+
+    public static final String WORKLOAD_PROPERTY = "workload"; // -Dworkload=path/to/workload.properties
+
+    static final int MAX_REDRAWS = 16; // draws per key before drawKeys falls back to probing for a free key
+    static final int LINEAR_SCAN_KEYS = 16; // up to this many keys per task, duplicates are checked without a HashSet
+
+    public int num_tasks;
+    public int num_tuple;
+    public double max_value;
+    public double range_selectivity = 0; // fraction of [0, max_value) per range update, 0 for random widths
+    public final List<TxType> types = new ArrayList<>();
+    private double[] cumulative; // upper bound of each type's share of [0,1)
+
+    public static class TxType {
+        public final String name;
+        public final String kind;
+        public final double weight;
+        public final int queries_per_task;
+        public final KeyDistribution distribution;
+
+        public TxType(String name, String kind, double weight, int queries_per_task, KeyDistribution distribution) {
+            this.name = name;
+            this.kind = kind;
+            this.weight = weight;
+            this.queries_per_task = queries_per_task;
+            this.distribution = distribution;
+        }
+
+        // Point reads and writes address rows by data_id, the other kinds do not
+        public boolean usesKeys() {
+            return POINT_READ.equals(kind) || WRITE.equals(kind);
+        }
+
+        public boolean writes() {
+            return WRITE.equals(kind) || RANGE_UPDATE.equals(kind);
+        }
+
+        @Override
+        public String toString() {
+            return name + "(" + kind + ", weight=" + weight + ", queries_per_task=" + queries_per_task
+                    + (usesKeys() ? ", distribution=" + distribution : "") + ")";
+        }
+    }
+
+    /**
+     * The mix the drivers used to hardcode: 70% point reads, 10% full scans, 20% writes.
+     */
+    public static WorkloadSpec defaultMix(int num_tasks, int queries_per_task, int num_tuple, double max_value) {
+        WorkloadSpec spec = new WorkloadSpec();
+        spec.num_tasks = num_tasks;
+        spec.num_tuple = num_tuple;
+        spec.max_value = max_value;
+        KeyDistribution uniform = KeyDistribution.parse("uniform", num_tuple);
+        spec.types.add(new TxType("point_read", POINT_READ, 0.7, queries_per_task, uniform));
+        spec.types.add(new TxType("scan", SCAN, 0.1, 0, uniform));
+        spec.types.add(new TxType("write", WRITE, 0.2, queries_per_task, uniform));
+        spec.validate();
+        return spec;
+    }
+
+    /**
+     * Loads the spec named by the "workload" system property, or returns the given default
+     * if the property is not set.
+     */
+    public static WorkloadSpec fromSystemProperty(WorkloadSpec defaults) {
+        String path = System.getProperty(WORKLOAD_PROPERTY);
+        if (path == null) {
+            return defaults;
+        }
+        try (Reader in = new FileReader(path)) {
+            Properties props = new Properties();
+            props.load(in);
+            WorkloadSpec spec = parse(props, defaults);
+            System.out.println("Loaded workload spec " + path + ": " + spec);
+            return spec;
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read workload spec " + path, e);
+        }
+    }
+
+    /**
+     * Builds a spec from properties; keys that are missing fall back to defaults.
+     */
+    public static WorkloadSpec parse(Properties props, WorkloadSpec defaults) {
+        WorkloadSpec spec = new WorkloadSpec();
+        spec.num_tasks = intProperty(props, "num_tasks", defaults.num_tasks);
+        spec.num_tuple = intProperty(props, "num_tuple", defaults.num_tuple);
+        spec.max_value = doubleProperty(props, "max_value", defaults.max_value);
+        spec.range_selectivity = selectivityProperty(props, "range_selectivity", defaults.range_selectivity);
+
+        String type_list = props.getProperty("types");
+        String default_distribution = props.getProperty("key_distribution");
+        if (type_list == null) {
+            for (TxType type : defaults.types) {
+                String distribution = default_distribution == null ? type.distribution.spec : default_distribution;
+                spec.types.add(new TxType(type.name, type.kind, type.weight, type.queries_per_task,
+                        KeyDistribution.parse(distribution, spec.num_tuple)));
+            }
+        } else {
+            int default_queries = defaults.types.isEmpty() ? 1 : defaults.types.get(0).queries_per_task;
+            for (String name : type_list.split(",")) {
+                name = name.trim();
+                if (name.isEmpty()) {
+                    continue;
+                }
+                String prefix = "type." + name + ".";
+                String kind = props.getProperty(prefix + "kind", name).trim();
+                double weight = doubleProperty(props, prefix + "weight", 1.0);
+                int queries = intProperty(props, prefix + "queries_per_task", default_queries);
+                String distribution = props.getProperty(prefix + "distribution",
+                        default_distribution == null ? "uniform" : default_distribution);
+                spec.types.add(new TxType(name, kind, weight, queries, KeyDistribution.parse(distribution, spec.num_tuple)));
+            }
+        }
+        spec.validate();
+        return spec;
+    }
+
+    /**
+     * Maps p in [0,1) to a transaction type according to the weights.
+     */
+    public TxType pick(double p) {
+        for (int i = 0; i < cumulative.length - 1; i++) {
+            if (p < cumulative[i]) {
+                return types.get(i);
+            }
+        }
+        return types.get(types.size() - 1);
+    }
+
+    /**
+     * Draws queries_per_task random data_value ranges [start_range[q], stop_range[q]] for a range update.
+     */
+    public void drawRanges(RandomGenerator rand, double[] start_range, double[] stop_range) {
+        drawRanges(rand, max_value, range_selectivity, start_range, stop_range);
+    }
+
+    /**
+     * Draws data_value ranges in [0, max_value). With selectivity 0 the stop is uniform and
+     * the start uniform below it, as the drivers always did, so a range covers half the
+     * table on average. Otherwise every range has width selectivity * max_value at a
+     * uniform position; data_value is uniform, so it matches that fraction of the rows.
+     */
+    public static void drawRanges(RandomGenerator rand, double max_value, double selectivity, double[] start_range, double[] stop_range) {
+        double width = selectivity * max_value;
+        for (int q = 0; q < start_range.length; q++) {
+            if (selectivity > 0) {
+                start_range[q] = rand.nextDouble() * (max_value - width);
+                stop_range[q] = start_range[q] + width;
+            } else {
+                stop_range[q] = rand.nextDouble() * max_value;
+                start_range[q] = rand.nextDouble() * stop_range[q];
+            }
+        }
+    }
+
+    /**
+     * Draws type.queries_per_task distinct data_ids from the type's key distribution. A key
+     * that is already taken is redrawn; under heavy skew, after MAX_REDRAWS collisions in a
+     * row the next free key above the last draw is taken instead, so a task never spins on
+     * a hot set smaller than its key count.
+     */
+    public int[] drawKeys(RandomGenerator rand, TxType type) {
+        int n = type.queries_per_task;
+        int[] data_ids = new int[n];
+        HashSet<Integer> used_ids = n > LINEAR_SCAN_KEYS ? new HashSet<>(n * 2) : null;
+        for (int q = 0; q < n; q++) {
+            int data_id = type.distribution.next(rand);
+            int draws = 1;
+            while (isUsed(data_id, data_ids, q, used_ids)) {
+                if (draws < MAX_REDRAWS) {
+                    data_id = type.distribution.next(rand);
+                    draws++;
+                } else {
+                    data_id = data_id + 1 == num_tuple ? 0 : data_id + 1;
+                }
+            }
+            if (used_ids != null) {
+                used_ids.add(data_id);
+            }
+            data_ids[q] = data_id;
+        }
+        return data_ids;
+    }
+
+    private static boolean isUsed(int data_id, int[] data_ids, int count, HashSet<Integer> used_ids) {
+        if (used_ids != null) {
+            return used_ids.contains(data_id);
+        }
+        for (int i = 0; i < count; i++) {
+            if (data_ids[i] == data_id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void validate() {
+        if (types.isEmpty()) {
+            throw new IllegalArgumentException("Workload spec defines no transaction types");
+        }
+        double total = 0;
+        for (TxType type : types) {
+            if (!POINT_READ.equals(type.kind) && !SCAN.equals(type.kind) && !WRITE.equals(type.kind) && !RANGE_UPDATE.equals(type.kind)) {
+                throw new IllegalArgumentException("Unknown transaction kind '" + type.kind + "' for type " + type.name);
+            }
+            if (type.weight < 0) {
+                throw new IllegalArgumentException("Negative weight for type " + type.name);
+            }
+            if (type.usesKeys() && (type.queries_per_task < 1 || type.queries_per_task > num_tuple)) {
+                throw new IllegalArgumentException("queries_per_task of type " + type.name + " must be in [1, num_tuple]");
+            }
+            if (RANGE_UPDATE.equals(type.kind) && type.queries_per_task < 1) {
+                throw new IllegalArgumentException("queries_per_task of type " + type.name + " must be at least 1");
+            }
+            total += type.weight;
+        }
+        if (range_selectivity < 0 || range_selectivity > 1) {
+            throw new IllegalArgumentException("range_selectivity must be in [0, 1]: " + range_selectivity);
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("Workload spec weights sum to zero");
+        }
+        cumulative = new double[types.size()];
+        double sum = 0;
+        for (int i = 0; i < types.size(); i++) {
+            sum += types.get(i).weight;
+            cumulative[i] = sum / total;
+        }
+    }
+
+    private static int intProperty(Properties props, String key, int fallback) {
+        String value = props.getProperty(key);
+        return value == null ? fallback : Integer.parseInt(value.trim());
+    }
+
+    // A fraction, or a percentage with a trailing %
+    static double selectivityProperty(Properties props, String key, double fallback) {
+        String value = props.getProperty(key);
+        if (value == null) {
+            return fallback;
+        }
+        value = value.trim();
+        if (value.endsWith("%")) {
+            return Double.parseDouble(value.substring(0, value.length() - 1).trim()) / 100.0;
+        }
+        return Double.parseDouble(value);
+    }
+
+    private static double doubleProperty(Properties props, String key, double fallback) {
+        String value = props.getProperty(key);
+        return value == null ? fallback : Double.parseDouble(value.trim());
+    }
+
+    @Override
+    public String toString() {
+        return "[num_tasks=" + num_tasks + ", num_tuple=" + num_tuple + ", max_value=" + max_value
+                + (range_selectivity > 0 ? ", range_selectivity=" + range_selectivity : "") + ", types=" + types + "]";
+    }
+}